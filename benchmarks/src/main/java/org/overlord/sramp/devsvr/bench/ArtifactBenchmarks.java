@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.overlord.sramp.atom.archive.SrampArchive;
+import org.overlord.sramp.client.query.QueryResultSet;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.common.SrampModelUtils;
+
+/**
+ * Benchmarks of the S-RAMP Atom API, run through {@link org.overlord.sramp.client.SrampAtomApiClient}
+ * against an embedded dev server.  Note that the write benchmarks grow the repository
+ * as they run.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ArtifactBenchmarks {
+
+    private static final int BATCH_SIZE = 10;
+    private static final AtomicLong counter = new AtomicLong();
+
+    /**
+     * A freshly built S-RAMP archive for each invocation of the batch benchmark.
+     */
+    @State(Scope.Thread)
+    public static class BatchState {
+        public SrampArchive archive;
+
+        @Setup(Level.Invocation)
+        public void createArchive() throws Exception {
+            archive = new SrampArchive();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                String name = "batch-" + counter.incrementAndGet() + ".xml";
+                BaseArtifactType artifact = ArtifactType.XmlDocument().newArtifactInstance();
+                artifact.setName(name);
+                archive.addEntry("batch/" + name, artifact, new ByteArrayInputStream(RepositoryState.XML_CONTENT));
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void closeArchive() {
+            SrampArchive.closeQuietly(archive);
+        }
+    }
+
+    @Benchmark
+    public BaseArtifactType uploadArtifact(RepositoryState state) throws Exception {
+        return state.client.uploadArtifact(ArtifactType.XmlDocument(),
+                new ByteArrayInputStream(RepositoryState.XML_CONTENT), "upload-" + counter.incrementAndGet() + ".xml");
+    }
+
+    @Benchmark
+    public Object uploadBatch(RepositoryState state, BatchState batch) throws Exception {
+        return state.client.uploadBatch(batch.archive);
+    }
+
+    @Benchmark
+    public void updateMetaData(RepositoryState state) throws Exception {
+        BaseArtifactType artifact = state.client.getArtifactMetaData(ArtifactType.XmlDocument(),
+                state.knownArtifact.getUuid());
+        SrampModelUtils.setCustomProperty(artifact, "benchmark-counter", String.valueOf(counter.incrementAndGet()));
+        state.client.updateArtifactMetaData(artifact);
+    }
+
+    @Benchmark
+    public QueryResultSet queryByType(RepositoryState state) throws Exception {
+        return state.client.query("/s-ramp/core/XmlDocument", 0, 20, "name", true);
+    }
+
+    @Benchmark
+    public QueryResultSet queryByClassifier(RepositoryState state) throws Exception {
+        return state.client.query("/s-ramp/core/XmlDocument[s-ramp:classifiedByAnyOf(., 'http://www.example.org/colors.owl#Blue')]",
+                0, 20, "name", true);
+    }
+
+    @Benchmark
+    public QueryResultSet queryByCustomProperty(RepositoryState state) throws Exception {
+        return state.client.query("/s-ramp[@synthetic-prop-0 = 'order']", 0, 20, "name", true);
+    }
+
+    @Benchmark
+    public int downloadContent(RepositoryState state) throws Exception {
+        InputStream content = state.client.getArtifactContent(ArtifactType.XmlDocument(), state.knownArtifact.getUuid());
+        try {
+            return IOUtils.toByteArray(content).length;
+        } finally {
+            IOUtils.closeQuietly(content);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.overlord.commons.dev.server.DevServerEnvironment;
+import org.overlord.sramp.devsvr.SrampDevServer;
+
+/**
+ * Runs the S-RAMP dev server in-process so that benchmarks can be run against it.
+ * The server is started on a daemon thread (the dev server blocks until Jetty
+ * stops) and {@link #start()} returns once the repository has been seeded.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BenchmarkDevServer extends SrampDevServer {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private volatile Throwable startupError;
+    private volatile int port;
+
+    /**
+     * Constructor.
+     */
+    public BenchmarkDevServer() {
+        super(new String[0]);
+    }
+
+    /**
+     * Starts the server and waits for it to finish seeding.
+     * @throws Exception
+     */
+    public void start() throws Exception {
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    go();
+                } catch (Throwable t) {
+                    startupError = t;
+                    started.countDown();
+                }
+            }
+        }, "s-ramp-benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        long timeout = Long.getLong("s-ramp-benchmark.startup-timeout", 30L);
+        if (!started.await(timeout, TimeUnit.MINUTES)) {
+            throw new Exception("Timed out waiting for the S-RAMP dev server to start.");
+        }
+        if (startupError != null) {
+            throw new Exception("Failed to start the S-RAMP dev server.", startupError);
+        }
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SrampDevServer#postStart(org.overlord.commons.dev.server.DevServerEnvironment)
+     */
+    @Override
+    protected void postStart(DevServerEnvironment environment) throws Exception {
+        try {
+            super.postStart(environment);
+            port = serverPort();
+        } catch (Exception e) {
+            startupError = e;
+            throw e;
+        } finally {
+            started.countDown();
+        }
+    }
+
+    /**
+     * @return the base URL of the S-RAMP Atom API
+     */
+    public String getEndpoint() {
+        return "http://localhost:" + port + "/s-ramp-server";
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.overlord.sramp.client.SrampAtomApiClient;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.devsvr.AsyncLogging;
+
+/**
+ * Benchmark state - an embedded S-RAMP dev server whose repository has been seeded
+ * with {@link #repositorySize} synthetic artifacts (or, for "standard", with the
+ * dev server's standard sample data), plus one well known artifact that the
+ * read/update benchmarks operate on.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@State(Scope.Benchmark)
+public class RepositoryState {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte[] XML_CONTENT = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<order id=\"benchmark\">\n  <item sku=\"1234\" quantity=\"2\"/>\n</order>\n").getBytes(UTF_8);
+
+    @Param({ "standard", "1000", "10000" })
+    public String repositorySize;
+
+    public BenchmarkDevServer server;
+    public SrampAtomApiClient client;
+    public BaseArtifactType knownArtifact;
+
+    /**
+     * Starts the embedded server.  Each JMH fork gets its own JVM (and therefore its
+     * own in-memory repository), so there is nothing to tear down.
+     * @throws Exception
+     */
+    @Setup
+    public void setup() throws Exception {
+        AsyncLogging.init();
+        if ("standard".equals(repositorySize)) {
+            System.setProperty("s-ramp-dev-server.seed-type", "standard");
+        } else {
+            System.setProperty("s-ramp-dev-server.seed-type", "synthetic");
+            System.setProperty("s-ramp-dev-server.synthetic.count", repositorySize);
+        }
+        server = new BenchmarkDevServer();
+        server.start();
+
+        client = new SrampAtomApiClient(server.getEndpoint(), "benchmark", "benchmark", true);
+        knownArtifact = client.uploadArtifact(ArtifactType.XmlDocument(), new ByteArrayInputStream(XML_CONTENT),
+                "benchmark-order.xml");
+        knownArtifact.getClassifiedBy().add("http://www.example.org/colors.owl#Blue");
+        client.updateArtifactMetaData(knownArtifact);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import org.eclipse.jetty.server.Authentication;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A structured (key=value) Jetty request log for one of the dev server's contexts.
+ * Each request is written as a single line to the "org.overlord.sramp.devsvr.access"
+ * logger, which s-ramp-dev-server-log4j.xml routes through an async appender to
+ * access.log - so the request thread only formats the line and hands it off.  A line looks like:
+ * <pre>
+ * ts=1381234567890 context=/s-ramp-server method=GET uri="/s-ramp-server/s-ramp/core/Document" query="startPage=1"
+ *   status=200 bytes=5120 duration_ms=12 user=admin remote=127.0.0.1 thread="qtp123-45"
+ * </pre>
+ * The duration is measured from when Jetty started handling the request until
+ * the response was complete (including any asynchronous processing).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class AccessLog extends AbstractLifeCycle implements RequestLog {
+
+    private static final Logger log = LoggerFactory.getLogger("org.overlord.sramp.devsvr.access");
+
+    private final String context;
+
+    /**
+     * Constructor.
+     * @param context the context being logged (e.g. /s-ramp-server)
+     */
+    public AccessLog(String context) {
+        this.context = context;
+    }
+
+    /**
+     * @see org.eclipse.jetty.server.RequestLog#log(org.eclipse.jetty.server.Request, org.eclipse.jetty.server.Response)
+     */
+    @Override
+    public void log(Request request, Response response) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        StringBuilder line = new StringBuilder(256);
+        line.append("ts=").append(request.getTimeStamp());
+        line.append(" context=").append(context);
+        line.append(" method=").append(request.getMethod());
+        line.append(" uri=");
+        quote(line, request.getRequestURI());
+        if (request.getQueryString() != null) {
+            line.append(" query=");
+            quote(line, request.getQueryString());
+        }
+        line.append(" status=").append(response.getStatus());
+        line.append(" bytes=").append(response.getContentCount());
+        line.append(" duration_ms=").append(now - request.getTimeStamp());
+        Authentication authentication = request.getAuthentication();
+        if (authentication instanceof Authentication.User) {
+            line.append(" user=");
+            quote(line, ((Authentication.User) authentication).getUserIdentity().getUserPrincipal().getName());
+        }
+        line.append(" remote=").append(request.getRemoteAddr());
+        line.append(" thread=");
+        quote(line, Thread.currentThread().getName());
+        log.info(line.toString());
+    }
+
+    /**
+     * Appends a quoted value, escaping any quotes or backslashes in it.
+     * @param line
+     * @param value
+     */
+    private static void quote(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+}
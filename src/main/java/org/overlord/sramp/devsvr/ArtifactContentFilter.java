@@ -0,0 +1,377 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.DocumentArtifactType;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.repository.PersistenceFactory;
+import org.overlord.sramp.repository.PersistenceManager;
+
+/**
+ * Serves artifact content directly from the repository, with support for HTTP
+ * Range requests and conditional requests (If-None-Match, If-Modified-Since,
+ * If-Range).  The ETag is derived from the artifact's UUID, version and last
+ * modified timestamp.  Content is copied through a fixed size buffer, skipping to
+ * the start of the requested range.
+ * <p>
+ * Installed (when enabled with -Ds-ramp-dev-server.artifact-content=true) in front
+ * of both the Atom content endpoint (mode "atom" - /s-ramp/{model}/{type}/{uuid}/media)
+ * and the UI's artifact download service (mode "ui" -
+ * /app/services/artifactDownload?uuid=...&amp;type=...).  Requests that it cannot
+ * handle - metadata downloads (as=meta-data), unknown artifacts, artifacts without
+ * content, or anything the repository fails on - are passed along the chain
+ * unchanged, so the existing servlets produce the same responses (and errors) as
+ * before.  JCR credentials must already have been established (by the
+ * ServletCredentialsFilter).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ArtifactContentFilter implements Filter {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private boolean uiMode;
+
+    /**
+     * Constructor.
+     */
+    public ArtifactContentFilter() {
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        uiMode = "ui".equals(config.getInitParameter("mode"));
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        boolean head = "HEAD".equals(httpRequest.getMethod());
+        if (!head && !"GET".equals(httpRequest.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String uuid;
+        ArtifactType type;
+        if (uiMode) {
+            if (httpRequest.getParameter("as") != null && !"content".equals(httpRequest.getParameter("as"))) {
+                // e.g. as=meta-data - not content
+                chain.doFilter(request, response);
+                return;
+            }
+            uuid = httpRequest.getParameter("uuid");
+            type = toArtifactType(httpRequest.getParameter("type"));
+        } else {
+            // /s-ramp/{model}/{type}/{uuid}/media
+            String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+            String[] segments = path.split("/");
+            if (segments.length != 6 || !"s-ramp".equals(segments[1]) || !"media".equals(segments[5])) {
+                chain.doFilter(request, response);
+                return;
+            }
+            uuid = segments[4];
+            type = toArtifactType(segments[2] + "/" + segments[3]);
+        }
+        if (uuid == null || type == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        PersistenceManager persistenceManager;
+        BaseArtifactType artifact;
+        try {
+            persistenceManager = PersistenceFactory.newInstance();
+            artifact = persistenceManager.getArtifact(uuid, type);
+        } catch (Exception e) {
+            // Let the normal endpoint report the error (e.g. 404 for an unknown artifact)
+            artifact = null;
+            persistenceManager = null;
+        }
+        if (!(artifact instanceof DocumentArtifactType) || ((DocumentArtifactType) artifact).getContentSize() == null) {
+            // Not something we know how to serve - let the normal endpoint deal with it
+            chain.doFilter(request, response);
+            return;
+        }
+
+        try {
+            DocumentArtifactType document = (DocumentArtifactType) artifact;
+            sendContent(httpRequest, httpResponse, persistenceManager, type, document, head);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    /**
+     * Sends the artifact content (or part of it), honouring conditional and range headers.
+     * @param request
+     * @param response
+     * @param persistenceManager
+     * @param type
+     * @param document
+     * @param head
+     * @throws Exception
+     */
+    private void sendContent(HttpServletRequest request, HttpServletResponse response,
+            PersistenceManager persistenceManager, ArtifactType type, DocumentArtifactType document, boolean head)
+            throws Exception {
+        long length = document.getContentSize();
+        long lastModified = document.getLastModifiedTimestamp() == null ? -1
+                : document.getLastModifiedTimestamp().toGregorianCalendar().getTimeInMillis();
+        String etag = "\"" + document.getUuid() + "-" + document.getVersion() + "-" + lastModified + "\"";
+
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (lastModified != -1) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] parsed = parseRange(range, length);
+            if (parsed == null) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (parsed.length == 2) {
+                start = parsed[0];
+                end = parsed[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        if (document.getContentType() != null) {
+            response.setContentType(document.getContentType());
+        }
+        if (uiMode) {
+            // Same as the UI's download servlet
+            response.setHeader("Content-Disposition", contentDisposition(document.getName()));
+        }
+        response.setHeader("Content-Length", String.valueOf(Math.max(0, count)));
+        if (head || count <= 0) {
+            return;
+        }
+
+        InputStream content = persistenceManager.getArtifactContent(document.getUuid(), type);
+        try {
+            OutputStream out = response.getOutputStream();
+            copyRange(content, out, start, count);
+        } finally {
+            IOUtils.closeQuietly(content);
+        }
+    }
+
+    /**
+     * Builds an attachment Content-Disposition header for the given file name.  The
+     * name can be anything (including quotes and line breaks), so it is sent both as
+     * a sanitized ASCII filename and as an RFC 5987 encoded filename*.
+     * @param name
+     */
+    private static String contentDisposition(String name) {
+        if (name == null) {
+            return "attachment";
+        }
+        StringBuilder ascii = new StringBuilder(name.length());
+        for (char c : name.toCharArray()) {
+            ascii.append(c < 0x20 || c >= 0x7f || c == '"' || c == '\\' ? '_' : c);
+        }
+        StringBuilder encoded = new StringBuilder(name.length() * 3);
+        byte[] bytes;
+        try {
+            bytes = name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        for (byte b : bytes) {
+            int c = b & 0xff;
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "!#$&+-.^_`|~".indexOf(c) != -1) {
+                encoded.append((char) c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return "attachment; filename=\"" + ascii + "\"; filename*=UTF-8''" + encoded;
+    }
+
+    /**
+     * @param request
+     * @param etag
+     * @param lastModified
+     * @return true if the client's cached copy is still current
+     */
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+        }
+        if (lastModified != -1) {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            // HTTP dates only have second precision
+            return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Parses a Range header.  Only single byte ranges are supported - for anything
+     * else (including syntactically invalid ranges, such as one whose last byte
+     * comes before its first) the entire content is sent, as the spec requires.
+     * @param range
+     * @param length
+     * @return {start, end} for a satisfiable range, an empty array if the whole
+     *         content should be sent, or null if the range is not satisfiable
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return new long[0];
+        }
+        try {
+            long start, end;
+            if (dash == 0) {
+                // Suffix range - the last N bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+                if (end < start) {
+                    // Invalid - ignore the header
+                    return new long[0];
+                }
+                end = Math.min(length - 1, end);
+            }
+            if (start >= length) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    /**
+     * Copies a range of bytes from the input to the output.
+     * @param in
+     * @param out
+     * @param offset
+     * @param count
+     * @throws IOException
+     */
+    private static void copyRange(InputStream in, OutputStream out, long offset, long count) throws IOException {
+        long toSkip = offset;
+        while (toSkip > 0) {
+            long skipped = in.skip(toSkip);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    return;
+                }
+                skipped = 1;
+            }
+            toSkip -= skipped;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                return;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Converts "model/type" (Atom paths, extended types) or just "type" (core types)
+     * into an artifact type.
+     * @param type
+     * @return the artifact type, or null if it is not recognized
+     */
+    static ArtifactType toArtifactType(String type) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            int idx = type.indexOf('/');
+            if (idx == -1) {
+                return ArtifactType.valueOf(type);
+            }
+            String model = type.substring(0, idx);
+            String name = type.substring(idx + 1);
+            if ("ext".equals(model)) {
+                return ArtifactType.ExtendedDocument(name);
+            }
+            return ArtifactType.valueOf(name);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.xml.DOMConfigurator;
+
+/**
+ * Configures the dev server's asynchronous logging (see s-ramp-dev-server-log4j.xml).
+ * log4j substitutes system properties into its configuration but has no notion of
+ * defaults, so the defaults are filled in here before the configuration is loaded.
+ * The configuration isn't named log4j.xml, so log4j never loads it on its own
+ * (e.g. when a superclass creates the first logger) - each entry point
+ * (SrampDevServer, SrampClusterLauncher) calls {@link #init()} first thing in its
+ * main method.  A configuration given with -Dlog4j.configuration is used instead,
+ * if there is one.
+ * <p>
+ * Configured with the following system properties:
+ * <ul>
+ *   <li>s-ramp-dev-server.log.dir - directory for the log files (default target/logs)</li>
+ *   <li>s-ramp-dev-server.log.buffer-size - events buffered by each async appender (default 8192)</li>
+ *   <li>s-ramp-dev-server.log.blocking - block the logging thread when the buffer is full,
+ *       rather than dropping the event (default false)</li>
+ *   <li>s-ramp-dev-server.log.max-file-size - size at which a log file is rolled (default 50MB)</li>
+ *   <li>s-ramp-dev-server.log.max-backups - number of rolled files kept (default 5)</li>
+ *   <li>s-ramp-dev-server.log.modeshape-level - ModeShape log level (default INFO)</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class AsyncLogging {
+
+    private static final String CONFIGURATION = "s-ramp-dev-server-log4j.xml";
+
+    private static boolean initialized;
+
+    /**
+     * Fills in the logging defaults, configures log4j and makes sure buffered
+     * events are written out when the JVM exits.
+     */
+    public static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        setDefault("s-ramp-dev-server.log.dir", "target/logs");
+        setDefault("s-ramp-dev-server.log.buffer-size", "8192");
+        setDefault("s-ramp-dev-server.log.blocking", "false");
+        setDefault("s-ramp-dev-server.log.max-file-size", "50MB");
+        setDefault("s-ramp-dev-server.log.max-backups", "5");
+        setDefault("s-ramp-dev-server.log.modeshape-level", "INFO");
+        if (System.getProperty("log4j.configuration") == null) {
+            DOMConfigurator.configure(AsyncLogging.class.getClassLoader().getResource(CONFIGURATION));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Drains the async appenders and flushes the (buffered) files
+                LogManager.shutdown();
+            }
+        }, "logging-shutdown"));
+    }
+
+    /**
+     * @param name
+     * @param value
+     */
+    private static void setDefault(String name, String value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.InputStream;
+
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.overlord.sramp.atom.archive.SrampArchive;
+import org.overlord.sramp.client.SrampAtomApiClient;
+import org.overlord.sramp.common.ArtifactType;
+
+/**
+ * Seeds artifacts through the S-RAMP Atom API, exercising the full HTTP stack
+ * (marshalling, authentication filters, RESTEasy).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class AtomSeedTarget implements SeedTarget {
+
+    private final SrampAtomApiClient client;
+
+    /**
+     * Constructor.
+     * @param client
+     */
+    public AtomSeedTarget(SrampAtomApiClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#uploadOntology(java.io.InputStream)
+     */
+    @Override
+    public void uploadOntology(InputStream content) throws Exception {
+        client.uploadOntology(content);
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#uploadArtifact(org.overlord.sramp.common.ArtifactType, java.io.InputStream, java.lang.String)
+     */
+    @Override
+    public BaseArtifactType uploadArtifact(ArtifactType type, InputStream content, String fileName) throws Exception {
+        return client.uploadArtifact(type, content, fileName);
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#updateArtifactMetaData(org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType)
+     */
+    @Override
+    public void updateArtifactMetaData(BaseArtifactType artifact) throws Exception {
+        client.updateArtifactMetaData(artifact);
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#uploadBatch(org.overlord.sramp.atom.archive.SrampArchive)
+     */
+    @Override
+    public void uploadBatch(SrampArchive archive) throws Exception {
+        client.uploadBatch(archive);
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size pool of fixed-size byte buffers used to stream uploads into the
+ * repository.  The total amount of heap used for uploads is therefore bounded by
+ * the pool, no matter how many uploads are in progress - when all buffers are in
+ * use, further uploads wait for one to be returned, which throttles the clients
+ * (via TCP back-pressure) whenever the repository falls behind.
+ * <p>
+ * The shared pool is configured with the following system properties:
+ * <ul>
+ *   <li>s-ramp-dev-server.upload.buffer-size - the size of each buffer, which is also the memory available to a single upload (default 65536)</li>
+ *   <li>s-ramp-dev-server.upload.buffers - the number of buffers (default 16)</li>
+ *   <li>s-ramp-dev-server.upload.acquire-timeout - how long (ms) an upload waits for a buffer before it is rejected (default 30000)</li>
+ * </ul>
+ * Buffers are allocated lazily, so an idle pool costs nothing.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BufferPool {
+
+    private static final BufferPool instance = new BufferPool(
+            Integer.getInteger("s-ramp-dev-server.upload.buffer-size", 65536),
+            Integer.getInteger("s-ramp-dev-server.upload.buffers", 16),
+            Long.getLong("s-ramp-dev-server.upload.acquire-timeout", 30000L));
+
+    /**
+     * @return the shared upload buffer pool
+     */
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    private final int bufferSize;
+    private final int capacity;
+    private final long acquireTimeout;
+    private final BlockingQueue<byte[]> free;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param bufferSize
+     * @param capacity
+     * @param acquireTimeout
+     */
+    public BufferPool(int bufferSize, int capacity, long acquireTimeout) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.acquireTimeout = acquireTimeout;
+        this.free = new ArrayBlockingQueue<byte[]>(capacity);
+    }
+
+    /**
+     * Takes a buffer from the pool, waiting (up to the configured timeout) for one
+     * to become available.
+     * @return a buffer, or null if none became available in time
+     * @throws InterruptedException
+     */
+    public byte[] acquire() throws InterruptedException {
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        int count = allocated.get();
+        while (count < capacity) {
+            if (allocated.compareAndSet(count, count + 1)) {
+                return new byte[bufferSize];
+            }
+            count = allocated.get();
+        }
+        waits.incrementAndGet();
+        buffer = free.poll(acquireTimeout, TimeUnit.MILLISECONDS);
+        if (buffer == null) {
+            timeouts.incrementAndGet();
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * @param buffer
+     */
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * @return the size of each buffer
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the maximum number of buffers
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of buffers currently in use
+     */
+    public int getInUse() {
+        return allocated.get() - free.size();
+    }
+
+    /**
+     * @return the number of times an upload had to wait for a buffer
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * @return the number of times an upload gave up waiting for a buffer
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "BufferPool [bufferSize=" + bufferSize + ", capacity=" + capacity + ", inUse=" + getInUse()
+                + ", waits=" + getWaits() + ", timeouts=" + getTimeouts() + "]";
+    }
+
+}
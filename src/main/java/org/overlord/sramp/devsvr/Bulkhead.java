@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests of one kind (UI, Errai bus, API) that can hold
+ * request threads at the same time, so that one kind of traffic can't starve the
+ * others of the server's (shared) thread pool.  Requests beyond the limit wait
+ * (up to a timeout) for a slot, and are rejected when too many are already waiting.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long timeout;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param name
+     * @param maxConcurrent the number of requests allowed at once (0 for unlimited)
+     * @param maxQueued the number of requests allowed to wait
+     * @param timeout how long (ms) requests wait
+     */
+    public Bulkhead(String name, int maxConcurrent, int maxQueued, long timeout) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.timeout = timeout;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+    }
+
+    /**
+     * Enters the bulkhead, waiting for a slot if necessary.  Every successful call
+     * must be followed by a call to {@link #exit()}.
+     * @return false if the request was rejected
+     * @throws InterruptedException
+     */
+    public boolean enter() throws InterruptedException {
+        if (permits != null && !permits.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+            try {
+                if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+        active.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Leaves the bulkhead.
+     */
+    public void exit() {
+        active.decrementAndGet();
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return the bulkhead's name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the maximum number of concurrent requests (0 for unlimited)
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return the number of requests currently in the bulkhead
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of requests currently waiting for a slot
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of requests rejected so far
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+}
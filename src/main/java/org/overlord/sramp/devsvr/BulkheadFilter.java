@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs requests through one of the {@link Bulkhead}s configured by the
+ * {@link ServerProfile}.  The bulkhead is named by the "bulkhead" init parameter;
+ * requests whose path ends with the (optional) "exclude" init parameter are
+ * passed through untouched, so that they can be handled by a different bulkhead.
+ * Rejected requests get a 503.  A request keeps its slot in the bulkhead until it
+ * returns from the filter chain - requests that go async give it up as soon as
+ * they are suspended, blocking long-polls hold it until they complete.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BulkheadFilter implements Filter {
+
+    private Bulkhead bulkhead;
+    private String exclude;
+
+    /**
+     * Constructor.
+     */
+    public BulkheadFilter() {
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        bulkhead = MetricsRegistry.getInstance().bulkhead(config.getInitParameter("bulkhead"));
+        exclude = config.getInitParameter("exclude");
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        if (exclude != null && ((HttpServletRequest) request).getRequestURI().endsWith(exclude)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        boolean entered;
+        try {
+            entered = bulkhead.enter();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+        if (!entered) {
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", "1");
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Server busy (" + bulkhead.getName() + ").");
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            bulkhead.exit();
+        }
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+    }
+
+}
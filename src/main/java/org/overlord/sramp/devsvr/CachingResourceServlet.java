@@ -0,0 +1,393 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the UI's static resources from an in-memory index that is built at
+ * startup (a production alternative to the MultiDefaultServlet, which scans the
+ * resource bases on every request).  For each resource the index holds:
+ * <ul>
+ *   <li>a strong ETag (hash of the content) - the gzip variant has its own tag</li>
+ *   <li>the content itself, read into memory (the files live in module directories
+ *       that a rebuild rewrites in place, so they are never memory-mapped)</li>
+ *   <li>a precompressed gzip variant (for text resources)</li>
+ * </ul>
+ * The resource bases are watched for changes, so resources from modules being
+ * edited in the IDE are re-indexed as soon as they change on disk.
+ * <p>
+ * Init parameters:
+ * <ul>
+ *   <li>resourceBases - '|' separated list of directories (earlier ones win)</li>
+ *   <li>extensions - ',' separated list of file extensions to serve</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class CachingResourceServlet extends HttpServlet {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingResourceServlet.class);
+
+    private static final long serialVersionUID = 2930873590138458217L;
+
+    private static final String[] COMPRESSIBLE = new String[] { "html", "js", "css", "txt", "xml", "json" };
+
+    private final List<Path> bases = new ArrayList<Path>();
+    private final List<String> extensions = new ArrayList<String>();
+    private final Map<String, CachedResource> index = new ConcurrentHashMap<String, CachedResource>();
+    private transient WatchService watcher;
+    private transient Map<WatchKey, Path> watchKeys;
+    private transient Thread watchThread;
+
+    /**
+     * Constructor.
+     */
+    public CachingResourceServlet() {
+    }
+
+    /**
+     * @see javax.servlet.GenericServlet#init()
+     */
+    @Override
+    public void init() throws ServletException {
+        for (String base : getInitParameter("resourceBases").split("\\|")) {
+            bases.add(new File(base).toPath().toAbsolutePath().normalize());
+        }
+        for (String extension : getInitParameter("extensions").split(",")) {
+            extensions.add(extension.trim().toLowerCase());
+        }
+
+        long start = System.currentTimeMillis();
+        long totalBytes = 0;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            watchKeys = new HashMap<WatchKey, Path>();
+            // Index the bases in reverse order so that the earlier bases win
+            for (int i = bases.size() - 1; i >= 0; i--) {
+                for (Path file : walk(bases.get(i))) {
+                    CachedResource resource = load(file);
+                    if (resource != null) {
+                        index.put(toResourcePath(bases.get(i), file), resource);
+                        totalBytes += resource.length;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ServletException(e);
+        }
+        log.info("Indexed " + index.size() + " UI resources (" + totalBytes + " bytes) in "
+                + (System.currentTimeMillis() - start) + "ms");
+
+        watchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "s-ramp-ui-resource-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /**
+     * @see javax.servlet.GenericServlet#destroy()
+     */
+    @Override
+    public void destroy() {
+        IOUtils.closeQuietly(watcher);
+        index.clear();
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String path = req.getServletPath();
+        if (req.getPathInfo() != null) {
+            path += req.getPathInfo();
+        }
+        CachedResource resource = index.get(path);
+        if (resource == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        boolean gzip = resource.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+        // Each representation gets its own strong validator
+        String etag = gzip ? resource.gzipEtag : resource.etag;
+        resp.setHeader("ETag", etag);
+        resp.setDateHeader("Last-Modified", resource.lastModified);
+        if (resource.gzipped != null) {
+            resp.setHeader("Vary", "Accept-Encoding");
+        }
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String contentType = getServletContext().getMimeType(path);
+        if (contentType != null) {
+            resp.setContentType(contentType);
+        }
+        OutputStream out;
+        if (gzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+            resp.setContentLength(resource.gzipped.length);
+            out = resp.getOutputStream();
+            out.write(resource.gzipped);
+        } else {
+            resp.setContentLength(resource.content.length);
+            out = resp.getOutputStream();
+            out.write(resource.content);
+        }
+    }
+
+    /**
+     * Loads a single resource into the index format.
+     * @param file
+     * @return the resource, or null if it should not be served
+     * @throws IOException
+     */
+    private CachedResource load(Path file) throws IOException {
+        String extension = extension(file);
+        if (!extensions.contains(extension) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        byte[] content = Files.readAllBytes(file);
+        long length = content.length;
+
+        byte[] gzipped = null;
+        boolean compressible = false;
+        for (String type : COMPRESSIBLE) {
+            compressible |= type.equals(extension);
+        }
+        MessageDigest digest = newDigest();
+        digest.update(content);
+        if (compressible) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length / 3 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(baos);
+            gzip.write(content);
+            gzip.close();
+            // Only keep the compressed variant if it is actually smaller
+            if (baos.size() < length) {
+                gzipped = baos.toByteArray();
+            }
+        }
+        String hash = DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+        return new CachedResource("\"" + hash + "\"", "\"" + hash + "-gzip\"", lastModified, length, content, gzipped);
+    }
+
+    /**
+     * Watches the resource bases for changes and re-indexes any changed resources.
+     */
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir;
+            synchronized (watchKeys) {
+                dir = watchKeys.get(key);
+            }
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) event.context());
+                    try {
+                        if (Files.isDirectory(changed)) {
+                            for (Path file : walk(changed)) {
+                                reindex(file);
+                            }
+                        } else {
+                            reindex(changed);
+                        }
+                    } catch (IOException e) {
+                        log.warn("Failed to re-index UI resource " + changed + ": " + e.getMessage());
+                    }
+                }
+            }
+            if (!key.reset()) {
+                synchronized (watchKeys) {
+                    watchKeys.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-indexes the resource at the given (changed) file path.  The resource is
+     * resolved against all of the bases again, since a change in one base may
+     * reveal (or hide) the same resource in another.
+     * @param changed
+     * @throws IOException
+     */
+    private void reindex(Path changed) throws IOException {
+        for (Path base : bases) {
+            if (changed.startsWith(base)) {
+                String resourcePath = toResourcePath(base, changed);
+                CachedResource resource = null;
+                for (Path candidateBase : bases) {
+                    Path candidate = candidateBase.resolve(resourcePath.substring(1));
+                    if (Files.isRegularFile(candidate)) {
+                        resource = load(candidate);
+                        break;
+                    }
+                }
+                if (resource == null) {
+                    index.remove(resourcePath);
+                } else {
+                    index.put(resourcePath, resource);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds all files in the given directory tree, and registers all of its
+     * directories with the watch service.
+     * @param root
+     * @throws IOException
+     */
+    private List<Path> walk(Path root) throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        if (!Files.isDirectory(root)) {
+            return files;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                synchronized (watchKeys) {
+                    watchKeys.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * @param base
+     * @param file
+     * @return the request path of a file within a resource base
+     */
+    private static String toResourcePath(Path base, Path file) {
+        return "/" + base.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @param file
+     * @return the (lower case) extension of the file
+     */
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int idx = name.lastIndexOf('.');
+        return idx == -1 ? "" : name.substring(idx + 1).toLowerCase();
+    }
+
+    /**
+     * @return a new digest for computing ETags
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A single indexed resource.
+     */
+    private static class CachedResource {
+        private final String etag;
+        private final String gzipEtag;
+        private final long lastModified;
+        private final long length;
+        private final byte[] content;
+        private final byte[] gzipped;
+
+        /**
+         * Constructor.
+         * @param etag the ETag of the content
+         * @param gzipEtag the ETag of the gzip'd content
+         * @param lastModified
+         * @param length
+         * @param content the content
+         * @param gzipped the gzip'd content (or null)
+         */
+        public CachedResource(String etag, String gzipEtag, long lastModified, long length, byte[] content,
+                byte[] gzipped) {
+            this.etag = etag;
+            this.gzipEtag = gzipEtag;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.content = content;
+            this.gzipped = gzipped;
+        }
+    }
+
+}
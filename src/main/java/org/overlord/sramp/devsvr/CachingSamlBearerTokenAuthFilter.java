@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.bind.DatatypeConverter;
+
+import org.overlord.commons.auth.filters.SimplePrincipal;
+import org.overlord.commons.auth.jetty8.Jetty8SamlBearerTokenAuthFilter;
+
+/**
+ * The s-ramp-server's SAML bearer token filter, with validated assertions kept in
+ * the shared {@link IdentityCache}.  The filter never keeps the identity in the
+ * HTTP session, so clients (the UI, dtgov) present the same assertion on every
+ * request until it expires - with or without the stateless API mode - and parsing
+ * and validating it once per identity cache TTL is enough.  An assertion is never
+ * cached beyond its own validity: the cache entry expires at the earliest
+ * NotOnOrAfter of its Conditions and SubjectConfirmationData, if that comes
+ * before the end of the TTL.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class CachingSamlBearerTokenAuthFilter extends Jetty8SamlBearerTokenAuthFilter {
+
+    private static final Pattern NOT_ON_OR_AFTER = Pattern.compile(
+            "<(?:[\\w.-]+:)?(?:Conditions|SubjectConfirmationData)\\b[^>]*?\\sNotOnOrAfter\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    /**
+     * Constructor.
+     */
+    public CachingSamlBearerTokenAuthFilter() {
+    }
+
+    /**
+     * @see org.overlord.commons.auth.filters.SamlBearerTokenAuthFilter#doSamlLogin(java.lang.String, javax.servlet.http.HttpServletRequest)
+     */
+    @Override
+    protected SimplePrincipal doSamlLogin(String assertionData, HttpServletRequest request) throws IOException {
+        IdentityCache cache = IdentityCache.getInstance();
+        IdentityCache.Key cacheKey = cache.key("saml-bearer", "SAML-BEARER-TOKEN", assertionData);
+        SimplePrincipal principal = cache.get(cacheKey, SimplePrincipal.class);
+        if (principal == null) {
+            principal = super.doSamlLogin(assertionData, request);
+            Long notOnOrAfter = notOnOrAfter(assertionData);
+            if (notOnOrAfter != null) {
+                cache.put(cacheKey, principal, notOnOrAfter);
+            }
+        }
+        return principal;
+    }
+
+    /**
+     * Finds when an assertion stops being valid.
+     * @param assertionData
+     * @return the earliest NotOnOrAfter in the assertion (ms since the epoch),
+     *         Long.MAX_VALUE if it has none, or null if one can't be parsed
+     */
+    private static Long notOnOrAfter(String assertionData) {
+        long earliest = Long.MAX_VALUE;
+        Matcher matcher = NOT_ON_OR_AFTER.matcher(assertionData);
+        while (matcher.find()) {
+            try {
+                earliest = Math.min(earliest, DatatypeConverter.parseDateTime(matcher.group(1).trim()).getTimeInMillis());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return earliest;
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.IOUtils;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.overlord.sramp.client.SrampAtomApiClient;
+import org.overlord.sramp.common.ArtifactType;
+
+/**
+ * Measures the nodes of a local dev cluster from the outside:
+ * <ul>
+ *   <li>throughput - the request counters of each node are sampled from its
+ *       /s-ramp-server/metrics endpoint, so the requests each node served between
+ *       two samples can be turned into a per-node rate</li>
+ *   <li>replication lag - a probe document is added through the first node, and
+ *       the other nodes are polled until they can read the artifact's meta-data
+ *       (content replication) and until a query finds it (index update)</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ClusterProbe {
+
+    private static final long POLL_INTERVAL = 10;
+    private static final byte[] PROBE_CONTENT = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<probe/>\n").getBytes();
+
+    private final List<Integer> nodePorts;
+    private final String user;
+    private final String password;
+    private final long timeout;
+    private final List<SrampAtomApiClient> clients = new ArrayList<SrampAtomApiClient>();
+    private int probeCounter;
+
+    /**
+     * Constructor.
+     * @param nodePorts the HTTP ports of the cluster nodes
+     * @param user
+     * @param password
+     * @param timeout how long (ms) to wait for a write to show up on a node
+     * @throws Exception
+     */
+    public ClusterProbe(List<Integer> nodePorts, String user, String password, long timeout) throws Exception {
+        this.nodePorts = nodePorts;
+        this.user = user;
+        this.password = password;
+        this.timeout = timeout;
+        for (Integer port : nodePorts) {
+            clients.add(new SrampAtomApiClient("http://localhost:" + port + "/s-ramp-server", user, password, true));
+        }
+    }
+
+    /**
+     * Samples the number of requests served so far by each node.
+     * @return the request counts, indexed by node (-1 if a node couldn't be sampled)
+     */
+    public long[] sampleRequestCounts() {
+        long[] counts = new long[nodePorts.size()];
+        for (int i = 0; i < counts.length; i++) {
+            try {
+                counts[i] = readRequestCount(nodePorts.get(i));
+            } catch (IOException e) {
+                counts[i] = -1;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Reads the total request count from a node's metrics endpoint.  The
+     * per-thread ("{name}-thread") metrics are skipped, since they count the
+     * same requests again.
+     * @param port
+     * @throws IOException
+     */
+    private long readRequestCount(int port) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port
+                + "/s-ramp-server/metrics").openConnection();
+        connection.setRequestProperty("Authorization", "Basic "
+                + DatatypeConverter.printBase64Binary((user + ":" + password).getBytes("UTF-8")));
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            long total = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("sramp_request_total{") && !line.contains("-thread\"")) {
+                    total += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1).trim());
+                }
+            }
+            return total;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Adds a probe document through the first node and measures how long it takes
+     * to become visible on every other node.
+     * @return the lag measurements, indexed by node (the first node's entry is null)
+     * @throws Exception
+     */
+    public ReplicationLag[] measureReplicationLag() throws Exception {
+        String name = "cluster-probe-" + System.currentTimeMillis() + "-" + (probeCounter++) + ".xml";
+        BaseArtifactType probe = clients.get(0).uploadArtifact(ArtifactType.XmlDocument(),
+                new ByteArrayInputStream(PROBE_CONTENT), name);
+        long written = System.nanoTime();
+        String query = "/s-ramp/core/XmlDocument[@name = '" + name + "']";
+
+        ReplicationLag[] lags = new ReplicationLag[clients.size()];
+        for (int i = 1; i < clients.size(); i++) {
+            SrampAtomApiClient client = clients.get(i);
+            long contentLag = -1;
+            long queryLag = -1;
+            long deadline = written + timeout * 1000000L;
+            while (contentLag == -1 && System.nanoTime() < deadline) {
+                try {
+                    client.getArtifactMetaData(ArtifactType.XmlDocument(), probe.getUuid());
+                    contentLag = (System.nanoTime() - written) / 1000000L;
+                } catch (Exception e) {
+                    Thread.sleep(POLL_INTERVAL);
+                }
+            }
+            while (queryLag == -1 && System.nanoTime() < deadline) {
+                if (client.query(query, 0, 1, "name", true).size() > 0) {
+                    queryLag = (System.nanoTime() - written) / 1000000L;
+                } else {
+                    Thread.sleep(POLL_INTERVAL);
+                }
+            }
+            lags[i] = new ReplicationLag(contentLag, queryLag);
+        }
+        return lags;
+    }
+
+    /**
+     * Prints the per-node throughput between two request count samples.
+     * @param before
+     * @param after
+     * @param elapsedMillis
+     * @param proxy the front proxy (may be null)
+     */
+    public void reportThroughput(long[] before, long[] after, long elapsedMillis, ClusterProxy proxy) {
+        long total = 0;
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] < 0 || after[i] < 0) {
+                System.out.println(String.format("  node %d (port %d): unavailable", i, nodePorts.get(i)));
+                continue;
+            }
+            long requests = after[i] - before[i];
+            total += requests;
+            System.out.println(String.format("  node %d (port %d): %d requests, %.1f req/s%s", i, nodePorts.get(i),
+                    requests, requests * 1000.0 / Math.max(1, elapsedMillis),
+                    proxy == null ? "" : ", " + proxy.getConnections(i) + " proxied connections"));
+        }
+        System.out.println(String.format("  cluster: %d requests, %.1f req/s", total, total * 1000.0 / Math.max(1, elapsedMillis)));
+        if (proxy != null) {
+            System.out.println("  (the proxy distributes connections round robin, not requests or sessions)");
+        }
+    }
+
+    /**
+     * Prints the replication lag of each node.
+     * @param lags
+     */
+    public void reportReplicationLag(ReplicationLag[] lags) {
+        for (int i = 1; i < lags.length; i++) {
+            System.out.println(String.format("  node %d (port %d): content visible after %s, query visible after %s", i,
+                    nodePorts.get(i), lags[i].format(lags[i].getContentLag()), lags[i].format(lags[i].getQueryLag())));
+        }
+    }
+
+    /**
+     * How long a write through the first node took to show up on another node.
+     */
+    public static class ReplicationLag {
+        private final long contentLag;
+        private final long queryLag;
+
+        /**
+         * Constructor.
+         * @param contentLag
+         * @param queryLag
+         */
+        public ReplicationLag(long contentLag, long queryLag) {
+            this.contentLag = contentLag;
+            this.queryLag = queryLag;
+        }
+
+        /**
+         * @return ms until the artifact could be read (-1 if it never showed up)
+         */
+        public long getContentLag() {
+            return contentLag;
+        }
+
+        /**
+         * @return ms until a query found the artifact (-1 if it never showed up)
+         */
+        public long getQueryLag() {
+            return queryLag;
+        }
+
+        /**
+         * @param lag
+         */
+        private String format(long lag) {
+            return lag < 0 ? "(timed out)" : lag + "ms";
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A very simple round-robin front proxy for the local dev cluster.  It works at
+ * the TCP connection level: each accepted connection is piped to the next node
+ * (skipping nodes that refuse the connection), so a keep-alive client sticks to
+ * one node for the life of its connection.  That is good enough to spread the
+ * load generator's (stateless) clients across the nodes without having to parse
+ * HTTP.  There is no session affinity though: a browser's connections end up on
+ * different nodes, each with its own HTTP sessions, so the UI must be used
+ * through a node directly.  Listens on the loopback interface only.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ClusterProxy {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final int port;
+    private final List<Integer> nodePorts;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLongArray connections;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private ServerSocket serverSocket;
+
+    /**
+     * Constructor.
+     * @param port the port to listen on
+     * @param nodePorts the HTTP ports of the cluster nodes
+     */
+    public ClusterProxy(int port, List<Integer> nodePorts) {
+        this.port = port;
+        this.nodePorts = nodePorts;
+        this.connections = new AtomicLongArray(nodePorts.size());
+    }
+
+    /**
+     * Starts accepting connections.
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 128);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket client = serverSocket.accept();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                proxy(client);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if (!serverSocket.isClosed()) {
+                            System.err.println("Cluster proxy failed to accept a connection: " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        }, "cluster-proxy-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Pipes a client connection to the next available node.
+     * @param client
+     */
+    private void proxy(Socket client) {
+        Socket node = null;
+        try {
+            for (int attempt = 0; attempt < nodePorts.size() && node == null; attempt++) {
+                int idx = (next.getAndIncrement() & Integer.MAX_VALUE) % nodePorts.size();
+                try {
+                    node = new Socket("127.0.0.1", nodePorts.get(idx));
+                    connections.incrementAndGet(idx);
+                } catch (IOException e) {
+                    // Node is down - try the next one
+                }
+            }
+            if (node == null) {
+                return;
+            }
+            client.setTcpNoDelay(true);
+            node.setTcpNoDelay(true);
+            final Socket from = node;
+            final Socket to = client;
+            Future<?> responses = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pipe(from, to);
+                }
+            });
+            pipe(client, node);
+            responses.get();
+        } catch (Exception e) {
+            // Connection closed
+        } finally {
+            closeQuietly(client);
+            closeQuietly(node);
+        }
+    }
+
+    /**
+     * Copies bytes from one socket to the other until either side closes.
+     * @param from
+     * @param to
+     */
+    private static void pipe(Socket from, Socket to) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+            to.shutdownOutput();
+        } catch (IOException e) {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    /**
+     * @param socket
+     */
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * @param node the node index
+     * @return the number of connections proxied to the node
+     */
+    public long getConnections(int node) {
+        return connections.get(node);
+    }
+
+    /**
+     * Stops accepting connections and closes the proxied ones.
+     */
+    public void stop() {
+        closeQuietly(serverSocket);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param socket
+     */
+    private static void closeQuietly(ServerSocket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
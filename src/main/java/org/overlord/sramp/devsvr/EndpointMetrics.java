@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Metrics collected for a single endpoint (or filter): request counts, in-flight
+ * requests, response sizes and a latency histogram.  Latencies are recorded
+ * (wait-free) into an HdrHistogram recorder and folded into a cumulative
+ * histogram whenever the metrics are read.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final String context;
+    private final String name;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+    private Histogram cumulative;
+
+    /**
+     * Constructor.
+     * @param context
+     * @param name
+     */
+    public EndpointMetrics(String context, String name) {
+        this.context = context;
+        this.name = name;
+    }
+
+    /**
+     * Called when a request starts.
+     * @return the start time (to be passed to {@link #end(long, long, boolean)})
+     */
+    public long begin() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when a request completes.
+     * @param startNanos
+     * @param responseBytes
+     * @param error
+     */
+    public void end(long startNanos, long responseBytes, boolean error) {
+        inFlight.decrementAndGet();
+        record(System.nanoTime() - startNanos, responseBytes, error);
+    }
+
+    /**
+     * Records a completed request of the given duration (not counted as in-flight).
+     * @param durationNanos
+     * @param responseBytes
+     * @param error
+     */
+    public void record(long durationNanos, long responseBytes, boolean error) {
+        requests.incrementAndGet();
+        if (error) {
+            errors.incrementAndGet();
+        }
+        if (responseBytes > 0) {
+            bytes.addAndGet(responseBytes);
+        }
+        recorder.recordValue(Math.max(0, Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(durationNanos))));
+    }
+
+    /**
+     * @return a snapshot of the latency histogram (in microseconds)
+     */
+    public synchronized Histogram getLatencies() {
+        if (cumulative == null) {
+            cumulative = recorder.getIntervalHistogram();
+        } else {
+            cumulative.add(recorder.getIntervalHistogram());
+        }
+        return cumulative.copy();
+    }
+
+    /**
+     * @return the context the endpoint belongs to
+     */
+    public String getContext() {
+        return context;
+    }
+
+    /**
+     * @return the endpoint name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getRequestCount()
+     */
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getInFlight()
+     */
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getErrorCount()
+     */
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getResponseBytes()
+     */
+    @Override
+    public long getResponseBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getMeanLatencyMillis()
+     */
+    @Override
+    public double getMeanLatencyMillis() {
+        return getLatencies().getMean() / 1000.0;
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getP50LatencyMillis()
+     */
+    @Override
+    public double getP50LatencyMillis() {
+        return getLatencies().getValueAtPercentile(50.0) / 1000.0;
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getP99LatencyMillis()
+     */
+    @Override
+    public double getP99LatencyMillis() {
+        return getLatencies().getValueAtPercentile(99.0) / 1000.0;
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getP999LatencyMillis()
+     */
+    @Override
+    public double getP999LatencyMillis() {
+        return getLatencies().getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.EndpointMetricsMBean#getMaxLatencyMillis()
+     */
+    @Override
+    public double getMaxLatencyMillis() {
+        return getLatencies().getMaxValue() / 1000.0;
+    }
+
+}
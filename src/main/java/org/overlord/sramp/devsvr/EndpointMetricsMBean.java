@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+/**
+ * JMX view of the metrics collected for a single endpoint (or filter).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public interface EndpointMetricsMBean {
+
+    /**
+     * @return the total number of requests
+     */
+    public long getRequestCount();
+
+    /**
+     * @return the number of requests currently being processed
+     */
+    public int getInFlight();
+
+    /**
+     * @return the number of requests that failed (5xx or exception)
+     */
+    public long getErrorCount();
+
+    /**
+     * @return the total number of response bytes written
+     */
+    public long getResponseBytes();
+
+    /**
+     * @return the mean latency in milliseconds
+     */
+    public double getMeanLatencyMillis();
+
+    /**
+     * @return the median latency in milliseconds
+     */
+    public double getP50LatencyMillis();
+
+    /**
+     * @return the 99th percentile latency in milliseconds
+     */
+    public double getP99LatencyMillis();
+
+    /**
+     * @return the 99.9th percentile latency in milliseconds
+     */
+    public double getP999LatencyMillis();
+
+    /**
+     * @return the maximum latency in milliseconds
+     */
+    public double getMaxLatencyMillis();
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Custom Java Flight Recorder events for the dev server.  The events are
+ * defined at runtime through jdk.jfr.EventFactory (looked up reflectively, since
+ * the server is built for Java 7), so on a JVM without JFR every event is simply
+ * a no-op.  The events show up in a recording under the "S-RAMP Dev Server"
+ * category:
+ * <ul>
+ *   <li>Startup Phase - a phase of the server lifecycle (see {@link StartupProfiler})</li>
+ *   <li>Seed Step - a step of seeding the repository (see {@link SeedTimings})</li>
+ *   <li>Atom Request - a request to the S-RAMP Atom API</li>
+ * </ul>
+ * Start a recording with e.g. -XX:StartFlightRecording=filename=target/sramp.jfr
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class FlightRecorderEvents {
+
+    private static final String CATEGORY = "S-RAMP Dev Server";
+
+    private static Method createFactory;
+    private static Method newEvent;
+    private static Method isEnabled;
+    private static Method begin;
+    private static Method end;
+    private static Method commit;
+    private static Method set;
+    private static Constructor<?> annotationElement;
+    private static Constructor<?> valueDescriptor;
+    private static Class<?> nameAnnotation;
+    private static Class<?> labelAnnotation;
+    private static Class<?> categoryAnnotation;
+    private static Class<?> timespanAnnotation;
+    static {
+        try {
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+            createFactory = eventFactory.getMethod("create", List.class, List.class);
+            newEvent = eventFactory.getMethod("newEvent");
+            isEnabled = event.getMethod("isEnabled");
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            commit = event.getMethod("commit");
+            set = event.getMethod("set", int.class, Object.class);
+            annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+            valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+            nameAnnotation = Class.forName("jdk.jfr.Name");
+            labelAnnotation = Class.forName("jdk.jfr.Label");
+            categoryAnnotation = Class.forName("jdk.jfr.Category");
+            timespanAnnotation = Class.forName("jdk.jfr.Timespan");
+        } catch (Exception e) {
+            // No JFR in this JVM - all events are no-ops
+            createFactory = null;
+        }
+    }
+
+    public static final Type STARTUP_PHASE = new Type("StartupPhase", "Startup Phase",
+            new Field(String.class, "phase"), new Field(String.class, "detail"), new Field(int.class, "depth"));
+    public static final Type SEED_STEP = new Type("SeedStep", "Seed Step",
+            new Field(String.class, "step"), Field.millis("elapsed"));
+    public static final Type ATOM_REQUEST = new Type("AtomRequest", "Atom Request",
+            new Field(String.class, "method"), new Field(String.class, "path"), new Field(String.class, "model"),
+            new Field(String.class, "artifactType"), new Field(int.class, "status"));
+
+    /**
+     * @return true if the JVM supports flight recorder events
+     */
+    public static boolean isAvailable() {
+        return createFactory != null;
+    }
+
+    /**
+     * @param annotation
+     * @param value
+     */
+    private static Object annotation(Class<?> annotation, Object value) throws Exception {
+        return annotationElement.newInstance(annotation, value);
+    }
+
+    /**
+     * An event field.
+     */
+    private static class Field {
+        private final Class<?> type;
+        private final String name;
+        private final boolean millis;
+
+        /**
+         * @param name
+         * @return a long field holding a duration in milliseconds
+         */
+        public static Field millis(String name) {
+            return new Field(long.class, name, true);
+        }
+
+        /**
+         * Constructor.
+         * @param type
+         * @param name
+         */
+        public Field(Class<?> type, String name) {
+            this(type, name, false);
+        }
+
+        /**
+         * Constructor.
+         * @param type
+         * @param name
+         * @param millis
+         */
+        private Field(Class<?> type, String name, boolean millis) {
+            this.type = type;
+            this.name = name;
+            this.millis = millis;
+        }
+    }
+
+    /**
+     * A type of event.
+     */
+    public static class Type {
+        private final Object factory;
+
+        /**
+         * Constructor.
+         * @param name
+         * @param label
+         * @param fields
+         */
+        private Type(String name, String label, Field... fields) {
+            Object eventFactory = null;
+            if (isAvailable()) {
+                try {
+                    List<Object> annotations = Arrays.asList(
+                            annotation(nameAnnotation, "org.overlord.sramp.devsvr." + name),
+                            annotation(labelAnnotation, label),
+                            annotation(categoryAnnotation, new String[] { CATEGORY }));
+                    List<Object> descriptors = new ArrayList<Object>();
+                    for (Field field : fields) {
+                        List<Object> fieldAnnotations = new ArrayList<Object>();
+                        if (field.millis) {
+                            fieldAnnotations.add(annotation(timespanAnnotation, "MILLISECONDS"));
+                        }
+                        descriptors.add(valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+                    }
+                    eventFactory = createFactory.invoke(null, annotations, descriptors);
+                } catch (Exception e) {
+                    // Leave the event type disabled
+                }
+            }
+            this.factory = eventFactory;
+        }
+
+        /**
+         * Starts timing an event.  The event is only recorded if a flight recording
+         * with the event enabled is running.
+         * @return the event (to be committed once it's done)
+         */
+        public Event begin() {
+            if (factory == null) {
+                return Event.NONE;
+            }
+            try {
+                Object event = newEvent.invoke(factory);
+                if (!((Boolean) isEnabled.invoke(event))) {
+                    return Event.NONE;
+                }
+                FlightRecorderEvents.begin.invoke(event);
+                return new Event(event);
+            } catch (Exception e) {
+                return Event.NONE;
+            }
+        }
+
+        /**
+         * Records an event that has already happened (any duration is carried in its fields).
+         * @param values the field values, in the order they were defined
+         */
+        public void record(Object... values) {
+            begin().commit(values);
+        }
+    }
+
+    /**
+     * An event that is being timed.
+     */
+    public static class Event {
+        private static final Event NONE = new Event(null);
+
+        private final Object event;
+
+        /**
+         * Constructor.
+         * @param event
+         */
+        private Event(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * @return true if the event is being recorded (so its fields are worth working out)
+         */
+        public boolean isRecording() {
+            return event != null;
+        }
+
+        /**
+         * Ends the event and records it.
+         * @param values the field values, in the order they were defined
+         */
+        public void commit(Object... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    set.invoke(event, i, values[i]);
+                }
+                end.invoke(event);
+                FlightRecorderEvents.commit.invoke(event);
+            } catch (Exception e) {
+                // Not recorded
+            }
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records an "Atom Request" JFR event (see {@link FlightRecorderEvents}) around the
+ * rest of the filter chain, with the artifact model and type taken from the request
+ * path (/s-ramp/{model}/{type}/...) and the response status.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class FlightRecorderFilter implements Filter {
+
+    /**
+     * Constructor.
+     */
+    public FlightRecorderFilter() {
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        FlightRecorderEvents.Event event = FlightRecorderEvents.ATOM_REQUEST.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (event.isRecording()) {
+                commit(event, httpRequest, (HttpServletResponse) response);
+            }
+        }
+    }
+
+    /**
+     * Fills in the event's fields and records it.
+     * @param event
+     * @param request
+     * @param response
+     */
+    private void commit(FlightRecorderEvents.Event event, HttpServletRequest request, HttpServletResponse response) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String[] segments = path.split("/");
+        event.commit(request.getMethod(), path, segments.length > 2 ? segments[2] : null,
+                segments.length > 3 ? segments[3] : null, response.getStatus());
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, concurrent cache of authenticated identities.  Entries are keyed by
+ * the realm, username and credential - looked up by the credential's hash code and
+ * confirmed with equals, so a lookup allocates next to nothing - and expire after
+ * a fixed time-to-live (or earlier, if the caller says so).  When the cache is full,
+ * expired entries are purged and then the oldest entries are evicted in a batch
+ * (down to three quarters of the maximum size), so the cost of making room is
+ * spread over many puts.
+ * <p>
+ * A single shared instance is used by the Jetty login service and the SAML bearer
+ * token filter ({@link CachingSamlBearerTokenAuthFilter}, always installed on the
+ * s-ramp-server context).  It is configured with
+ * the following system properties:
+ * <ul>
+ *   <li>s-ramp-dev-server.identity-cache.ttl - time-to-live in milliseconds (default 60000, 0 disables the cache)</li>
+ *   <li>s-ramp-dev-server.identity-cache.max-size - maximum number of entries (default 1000)</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class IdentityCache {
+
+    private static final IdentityCache instance = new IdentityCache(
+            Long.getLong("s-ramp-dev-server.identity-cache.ttl", 60000L),
+            Integer.getInteger("s-ramp-dev-server.identity-cache.max-size", 1000));
+
+    /**
+     * @return the shared identity cache
+     */
+    public static IdentityCache getInstance() {
+        return instance;
+    }
+
+    private final long ttl;
+    private final int maxSize;
+    private final ConcurrentHashMap<Key, CachedIdentity> identities = new ConcurrentHashMap<Key, CachedIdentity>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param ttl
+     * @param maxSize
+     */
+    public IdentityCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates the cache key for a set of credentials.
+     * @param realm distinguishes the kind of identity being cached
+     * @param username
+     * @param credential
+     */
+    public Key key(String realm, String username, Object credential) {
+        return new Key(realm, username, credential);
+    }
+
+    /**
+     * Gets a cached identity.
+     * @param key
+     * @param type
+     * @return the identity, or null if it is not cached (or has expired)
+     */
+    public <T> T get(Key key, Class<T> type) {
+        if (ttl <= 0) {
+            return null;
+        }
+        CachedIdentity cached = identities.get(key);
+        if (cached != null && cached.expires > System.currentTimeMillis() && type.isInstance(cached.identity)) {
+            hits.incrementAndGet();
+            return type.cast(cached.identity);
+        }
+        if (cached != null) {
+            identities.remove(key, cached);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches an identity for the cache's time-to-live.
+     * @param key
+     * @param identity
+     */
+    public void put(Key key, Object identity) {
+        put(key, identity, Long.MAX_VALUE);
+    }
+
+    /**
+     * Caches an identity until the cache's time-to-live runs out, or until the
+     * given time if that is sooner (e.g. when the credential itself expires).
+     * @param key
+     * @param identity
+     * @param notAfter when the identity stops being valid (ms since the epoch)
+     */
+    public void put(Key key, Object identity, long notAfter) {
+        if (ttl <= 0 || identity == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expires = Math.min(now + ttl, notAfter);
+        if (expires <= now) {
+            return;
+        }
+        if (identities.size() >= maxSize) {
+            evict(now);
+        }
+        identities.put(key, new CachedIdentity(identity, now, expires));
+    }
+
+    /**
+     * Makes room in the cache - removes all expired entries and, if that is not
+     * enough, the oldest entries until the cache is down to three quarters of its
+     * maximum size.
+     * @param now
+     */
+    private synchronized void evict(long now) {
+        if (identities.size() < maxSize) {
+            // Another thread already made room
+            return;
+        }
+        List<Entry<Key, CachedIdentity>> live = new ArrayList<Entry<Key, CachedIdentity>>(identities.size());
+        Iterator<Entry<Key, CachedIdentity>> iter = identities.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<Key, CachedIdentity> entry = iter.next();
+            if (entry.getValue().expires <= now) {
+                iter.remove();
+                evictions.incrementAndGet();
+            } else {
+                live.add(entry);
+            }
+        }
+        int target = maxSize * 3 / 4;
+        if (live.size() > target) {
+            Collections.sort(live, new Comparator<Entry<Key, CachedIdentity>>() {
+                @Override
+                public int compare(Entry<Key, CachedIdentity> e1, Entry<Key, CachedIdentity> e2) {
+                    long c1 = e1.getValue().created;
+                    long c2 = e2.getValue().created;
+                    return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < live.size() - target; i++) {
+                if (identities.remove(live.get(i).getKey(), live.get(i).getValue())) {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all cached identities.
+     */
+    public void clear() {
+        identities.clear();
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of evicted entries
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of cached identities
+     */
+    public int getSize() {
+        return identities.size();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "IdentityCache [size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + "]";
+    }
+
+    /**
+     * Identifies a set of credentials.
+     */
+    public static class Key {
+        private final String realm;
+        private final String username;
+        private final Object credential;
+        private final int hash;
+
+        /**
+         * Constructor.
+         * @param realm
+         * @param username
+         * @param credential
+         */
+        private Key(String realm, String username, Object credential) {
+            this.realm = realm;
+            this.username = username;
+            this.credential = credential;
+            this.hash = (31 * realm.hashCode() + (username == null ? 0 : username.hashCode())) * 31
+                    + (credential == null ? 0 : credential.hashCode());
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && realm.equals(other.realm) && equal(username, other.username)
+                    && equal(credential, other.credential);
+        }
+
+        /**
+         * @param o1
+         * @param o2
+         */
+        private static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+    /**
+     * A single cached identity.
+     */
+    private static class CachedIdentity {
+        private final Object identity;
+        private final long created;
+        private final long expires;
+
+        /**
+         * Constructor.
+         * @param identity
+         * @param created
+         * @param expires
+         */
+        public CachedIdentity(Object identity, long created, long expires) {
+            this.identity = identity;
+            this.created = created;
+            this.expires = expires;
+        }
+    }
+
+}
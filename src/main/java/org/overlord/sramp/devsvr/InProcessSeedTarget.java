@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import javax.jcr.Credentials;
+import javax.security.auth.Subject;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.security.DefaultIdentityService;
+import org.eclipse.jetty.security.MappedLoginService.KnownUser;
+import org.eclipse.jetty.security.MappedLoginService.RolePrincipal;
+import org.eclipse.jetty.security.UserAuthentication;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.UserIdentity;
+import org.eclipse.jetty.util.security.Constraint;
+import org.modeshape.jcr.api.ServletCredentials;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.DocumentArtifactType;
+import org.overlord.sramp.atom.archive.SrampArchive;
+import org.overlord.sramp.atom.archive.SrampArchiveEntry;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.repository.PersistenceFactory;
+import org.overlord.sramp.repository.PersistenceManager;
+import org.overlord.sramp.repository.jcr.JCRRepositoryFactory;
+
+/**
+ * Seeds artifacts directly into the repository's persistence layer, in the same
+ * JVM as the server.  This skips the HTTP round trip, the Atom marshalling, the
+ * authentication filters and RESTEasy for every artifact.  It does not batch the
+ * repository writes, though: the persistence layer still saves each artifact in
+ * its own JCR session, so the per-artifact repository cost is the same as over
+ * HTTP.  A single persistence manager is used for the whole seeding run.
+ * <p>
+ * Each operation runs with JCR login credentials for the seeding user, set through
+ * the repository's own API (as the ServletCredentialsFilter does for requests).
+ * <p>
+ * Ontologies are few and small, so they are still added through the Atom API (the
+ * RDF parsing lives in the server's REST layer).  Note that other Atom-layer
+ * behaviour is skipped as well, so a repository seeded in-process is not identical
+ * to one seeded over HTTP (which is why HTTP is the default seed mode).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class InProcessSeedTarget implements SeedTarget {
+
+    private static final String[] SEEDER_ROLES = { "overlorduser", "admin.sramp", "readonly", "readwrite", "admin" };
+
+    private final SeedTarget ontologyTarget;
+    private final Credentials credentials;
+    private PersistenceManager persistenceManager;
+
+    /**
+     * Constructor.
+     * @param ontologyTarget where to send ontologies
+     * @param user the user to seed the repository as
+     */
+    public InProcessSeedTarget(SeedTarget ontologyTarget, String user) {
+        this.ontologyTarget = ontologyTarget;
+        this.credentials = createCredentials(user);
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#uploadOntology(java.io.InputStream)
+     */
+    @Override
+    public void uploadOntology(InputStream content) throws Exception {
+        ontologyTarget.uploadOntology(content);
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#uploadArtifact(org.overlord.sramp.common.ArtifactType, java.io.InputStream, java.lang.String)
+     */
+    @Override
+    public BaseArtifactType uploadArtifact(ArtifactType type, final InputStream content, String fileName) throws Exception {
+        final BaseArtifactType artifact = type.newArtifactInstance();
+        artifact.setName(fileName);
+        return inRepository(new Callable<BaseArtifactType>() {
+            @Override
+            public BaseArtifactType call() throws Exception {
+                return persist(persistenceManager(), artifact, content);
+            }
+        });
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#updateArtifactMetaData(org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType)
+     */
+    @Override
+    public void updateArtifactMetaData(final BaseArtifactType artifact) throws Exception {
+        inRepository(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ArtifactType type = ArtifactType.valueOf(artifact);
+                persistenceManager().updateArtifact(artifact, type);
+                QueryCache.getInstance().invalidate(type.getModel(), type.getType());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see org.overlord.sramp.devsvr.SeedTarget#uploadBatch(org.overlord.sramp.atom.archive.SrampArchive)
+     */
+    @Override
+    public void uploadBatch(final SrampArchive archive) throws Exception {
+        inRepository(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (SrampArchiveEntry entry : archive.getEntries()) {
+                    InputStream content = archive.getInputStream(entry);
+                    try {
+                        persist(persistenceManager(), entry.getMetaData(), content);
+                    } finally {
+                        IOUtils.closeQuietly(content);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Persists a single artifact, filling in the bits of meta-data that the Atom
+     * API would normally take care of.
+     * @param persistenceManager
+     * @param artifact
+     * @param content
+     * @throws Exception
+     */
+    private static BaseArtifactType persist(PersistenceManager persistenceManager, BaseArtifactType artifact,
+            InputStream content) throws Exception {
+        if (artifact.getUuid() == null) {
+            artifact.setUuid(UUID.randomUUID().toString());
+        }
+        if (artifact instanceof DocumentArtifactType && ((DocumentArtifactType) artifact).getContentType() == null) {
+            ((DocumentArtifactType) artifact).setContentType(contentType(artifact.getName()));
+        }
+        BaseArtifactType persisted = persistenceManager.persistArtifact(artifact, content);
+        // These writes bypass the Atom API, so the query cache has to be told about them
+        ArtifactType type = ArtifactType.valueOf(artifact);
+        QueryCache.getInstance().invalidate(type.getModel(), type.getType());
+        return persisted;
+    }
+
+    /**
+     * Guesses the content type of an artifact from its name.
+     * @param name
+     */
+    private static String contentType(String name) {
+        String lname = name == null ? "" : name.toLowerCase();
+        if (lname.endsWith(".pdf")) {
+            return "application/pdf";
+        } else if (lname.endsWith(".xml") || lname.endsWith(".wsdl") || lname.endsWith(".xsd")
+                || lname.endsWith(".owl")) {
+            return "application/xml";
+        } else if (lname.endsWith(".txt")) {
+            return "text/plain";
+        } else if (lname.endsWith(".jar") || lname.endsWith(".zip")) {
+            return "application/zip";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * @return the persistence manager used for the whole seeding run (created on first
+     *         use, since creating it starts the repository)
+     */
+    private synchronized PersistenceManager persistenceManager() {
+        if (persistenceManager == null) {
+            persistenceManager = PersistenceFactory.newInstance();
+        }
+        return persistenceManager;
+    }
+
+    /**
+     * Runs the given task with repository credentials for the seeding user.
+     * @param task
+     * @throws Exception
+     */
+    private <T> T inRepository(Callable<T> task) throws Exception {
+        JCRRepositoryFactory.setLoginCredentials(credentials);
+        try {
+            return task.call();
+        } finally {
+            JCRRepositoryFactory.clearLoginCredentials();
+        }
+    }
+
+    /**
+     * Creates the repository credentials for the seeding user.  The repository's
+     * "servlet" security provider authorizes sessions from a servlet request's user
+     * and roles, so the credentials wrap a (never dispatched) Jetty request that
+     * carries an authenticated identity for the user.
+     * @param user
+     */
+    private static Credentials createCredentials(String user) {
+        Principal principal = new KnownUser(user, null);
+        Subject subject = new Subject();
+        subject.getPrincipals().add(principal);
+        for (String role : SEEDER_ROLES) {
+            subject.getPrincipals().add(new RolePrincipal(role));
+        }
+        subject.setReadOnly();
+        UserIdentity identity = new DefaultIdentityService().newUserIdentity(subject, principal, SEEDER_ROLES);
+        Request request = new Request();
+        request.setAuthentication(new UserAuthentication(Constraint.__BASIC_AUTH, identity));
+        return new ServletCredentials(request);
+    }
+
+}
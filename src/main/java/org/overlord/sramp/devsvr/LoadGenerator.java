@@ -0,0 +1,429 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.overlord.sramp.client.SrampAtomApiClient;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.common.SrampModelUtils;
+
+/**
+ * Drives a mixed workload against a running dev server and reports per-operation
+ * latency percentiles and throughput.  The workload is made up of the following
+ * operations:
+ * <ul>
+ *   <li>read - fetch artifact meta-data through the Atom API</li>
+ *   <li>write - upload a new artifact through the Atom API</li>
+ *   <li>query - run an S-RAMP query through the Atom API</li>
+ *   <li>ui - download artifact content through the UI's artifactDownload service</li>
+ * </ul>
+ * The generator is driven by the following system properties:
+ * <ul>
+ *   <li>s-ramp-dev-server.load.clients - number of concurrent clients (default 8)</li>
+ *   <li>s-ramp-dev-server.load.duration - measured run time in seconds (default 60)</li>
+ *   <li>s-ramp-dev-server.load.warmup - un-measured warmup time in seconds (default 10)</li>
+ *   <li>s-ramp-dev-server.load.rate - target total operations per second; 0 means
+ *       closed-loop (every client issues its next operation as soon as the previous
+ *       one completes) (default 0)</li>
+ *   <li>s-ramp-dev-server.load.mix - relative weights of the operations
+ *       (default "read:60,write:10,query:20,ui:10")</li>
+ *   <li>s-ramp-dev-server.load.report - report file (without extension) - both a
+ *       .json and a .csv report are written (default "target/load-report")</li>
+ * </ul>
+ * In open-loop mode latencies are measured from the time an operation was
+ * scheduled to start rather than when it actually started, so that a stalled
+ * server is not hidden by clients that fall behind schedule.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class LoadGenerator {
+
+    private static final String[] OPERATIONS = new String[] { "read", "write", "query", "ui" };
+    private static final String[] QUERIES = new String[] {
+        "/s-ramp/core/XmlDocument",
+        "/s-ramp/core/Document",
+        "/s-ramp[s-ramp:classifiedByAnyOf(., 'http://www.example.org/colors.owl#Blue')]",
+        "/s-ramp[@load-test = 'true']"
+    };
+    private static final int NUM_READ_ARTIFACTS = 20;
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final byte[] XML_CONTENT = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<order id=\"load-test\">\n  <item sku=\"1234\" quantity=\"2\"/>\n</order>\n").getBytes();
+
+    private final String baseUrl;
+    private final String user;
+    private final String password;
+    private final int clients;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int rate;
+    private final int[] mix;
+    private final int mixTotal;
+    private final String reportPath;
+    private final List<String> readUuids = new ArrayList<String>();
+    private final AtomicLong writeCounter = new AtomicLong();
+
+    /**
+     * Constructor - reads the workload settings from system properties.
+     * @param baseUrl the base URL of the dev server (e.g. http://localhost:8080)
+     * @param user
+     * @param password
+     */
+    public LoadGenerator(String baseUrl, String user, String password) {
+        this.baseUrl = baseUrl;
+        this.user = user;
+        this.password = password;
+        clients = Math.max(1, Integer.getInteger("s-ramp-dev-server.load.clients", 8));
+        durationSeconds = Integer.getInteger("s-ramp-dev-server.load.duration", 60);
+        warmupSeconds = Integer.getInteger("s-ramp-dev-server.load.warmup", 10);
+        rate = Integer.getInteger("s-ramp-dev-server.load.rate", 0);
+        mix = parseMix(System.getProperty("s-ramp-dev-server.load.mix", "read:60,write:10,query:20,ui:10"));
+        int total = 0;
+        for (int weight : mix) {
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Invalid load mix - at least one operation must have a positive weight.");
+        }
+        mixTotal = total;
+        reportPath = System.getProperty("s-ramp-dev-server.load.report", "target/load-report");
+    }
+
+    /**
+     * Runs the workload and writes the report.
+     * @throws Exception
+     */
+    public void run() throws Exception {
+        System.out.println("----------  Load Test  ---------------");
+        prepare();
+
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long runEnd = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final CountDownLatch done = new CountDownLatch(clients);
+        final List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < clients; i++) {
+            final Worker worker = new Worker(i, warmupEnd, runEnd);
+            workers.add(worker);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        worker.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "s-ramp-load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        // Merge the per-worker results
+        Histogram[] histograms = new Histogram[OPERATIONS.length];
+        long[] errors = new long[OPERATIONS.length];
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            histograms[op] = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+            for (Worker worker : workers) {
+                histograms[op].add(worker.histograms[op]);
+                errors[op] += worker.errors[op];
+            }
+        }
+        writeReport(histograms, errors);
+        System.out.println("----------  Load Test DONE  ---------------");
+    }
+
+    /**
+     * Creates the artifacts that the read and ui operations work with.  They are
+     * tagged with the load-test property, which one of the queries selects on.
+     * @throws Exception
+     */
+    private void prepare() throws Exception {
+        SrampAtomApiClient client = new SrampAtomApiClient(baseUrl + "/s-ramp-server", user, password, true);
+        for (int i = 0; i < NUM_READ_ARTIFACTS; i++) {
+            BaseArtifactType artifact = client.uploadArtifact(ArtifactType.XmlDocument(),
+                    new ByteArrayInputStream(XML_CONTENT), "load-test-" + i + ".xml");
+            SrampModelUtils.setCustomProperty(artifact, "load-test", "true");
+            client.updateArtifactMetaData(artifact);
+            readUuids.add(artifact.getUuid());
+        }
+    }
+
+    /**
+     * Writes the JSON and CSV reports (and a summary to stdout).
+     * @param histograms
+     * @param errors
+     * @throws IOException
+     */
+    private void writeReport(Histogram[] histograms, long[] errors) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"mode\": \"").append(rate > 0 ? "open" : "closed").append("\",\n");
+        json.append("  \"clients\": ").append(clients).append(",\n");
+        json.append("  \"targetRate\": ").append(rate).append(",\n");
+        json.append("  \"durationSeconds\": ").append(durationSeconds).append(",\n");
+        json.append("  \"operations\": {");
+        StringBuilder csv = new StringBuilder();
+        csv.append("operation,count,errors,throughput_per_sec,p50_ms,p99_ms,p999_ms,max_ms\n");
+        boolean first = true;
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            Histogram h = histograms[op];
+            if (h.getTotalCount() == 0 && errors[op] == 0) {
+                continue;
+            }
+            double throughput = durationSeconds > 0 ? h.getTotalCount() / (double) durationSeconds : 0;
+            String p50 = millis(h.getValueAtPercentile(50.0));
+            String p99 = millis(h.getValueAtPercentile(99.0));
+            String p999 = millis(h.getValueAtPercentile(99.9));
+            String max = millis(h.getMaxValue());
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    \"").append(OPERATIONS[op]).append("\": { ");
+            json.append("\"count\": ").append(h.getTotalCount()).append(", ");
+            json.append("\"errors\": ").append(errors[op]).append(", ");
+            json.append("\"throughputPerSec\": ").append(String.format(Locale.ROOT, "%.2f", throughput)).append(", ");
+            json.append("\"p50Ms\": ").append(p50).append(", ");
+            json.append("\"p99Ms\": ").append(p99).append(", ");
+            json.append("\"p999Ms\": ").append(p999).append(", ");
+            json.append("\"maxMs\": ").append(max).append(" }");
+            csv.append(OPERATIONS[op]).append(',').append(h.getTotalCount()).append(',').append(errors[op])
+                    .append(',').append(String.format(Locale.ROOT, "%.2f", throughput)).append(',').append(p50).append(',')
+                    .append(p99).append(',').append(p999).append(',').append(max).append('\n');
+            System.out.println(String.format(Locale.ROOT, "  %-6s count=%d errors=%d throughput=%.2f/s p50=%sms p99=%sms p999=%sms",
+                    OPERATIONS[op], h.getTotalCount(), errors[op], throughput, p50, p99, p999));
+        }
+        json.append("\n  }\n}\n");
+
+        write(new File(reportPath + ".json"), json.toString());
+        write(new File(reportPath + ".csv"), csv.toString());
+        System.out.println("Load test report written to " + reportPath + ".json/.csv");
+    }
+
+    /**
+     * Converts a recorded value (micros) to a millisecond string.
+     * @param micros
+     */
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+
+    /**
+     * Writes the given content to a file.
+     * @param file
+     * @param content
+     * @throws IOException
+     */
+    private static void write(File file, String content) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Parses the operation mix setting, e.g. "read:60,write:10,query:20,ui:10".
+     * Operations that are not mentioned get a weight of zero.
+     * @param setting
+     */
+    private static int[] parseMix(String setting) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String item : setting.split(",")) {
+            String[] split = item.trim().split(":");
+            if (split.length != 2) {
+                throw new IllegalArgumentException("Invalid load mix entry: " + item);
+            }
+            int idx = -1;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                if (OPERATIONS[i].equals(split[0].trim())) {
+                    idx = i;
+                }
+            }
+            if (idx == -1) {
+                throw new IllegalArgumentException("Unknown load test operation: " + split[0]);
+            }
+            weights[idx] = Integer.parseInt(split[1].trim());
+        }
+        return weights;
+    }
+
+    /**
+     * A single simulated client.  Each worker records into its own histograms, which
+     * are merged once the run is over.
+     */
+    private class Worker {
+
+        private final Random random;
+        private final long warmupEnd;
+        private final long runEnd;
+        private final SrampAtomApiClient client;
+        private final Histogram[] histograms = new Histogram[OPERATIONS.length];
+        private final long[] errors = new long[OPERATIONS.length];
+
+        /**
+         * Constructor.
+         * @param id
+         * @param warmupEnd
+         * @param runEnd
+         */
+        public Worker(int id, long warmupEnd, long runEnd) {
+            this.random = new Random(id);
+            this.warmupEnd = warmupEnd;
+            this.runEnd = runEnd;
+            try {
+                this.client = new SrampAtomApiClient(baseUrl + "/s-ramp-server", user, password, false);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                histograms[op] = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+            }
+        }
+
+        /**
+         * Issues operations until the run is over.
+         */
+        public void run() {
+            long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(clients) / rate : 0;
+            // Stagger the clients so that open-loop arrivals are spread evenly
+            long scheduled = System.nanoTime() + (interval * random.nextInt(clients)) / clients;
+            while (true) {
+                long start;
+                if (interval > 0) {
+                    long now = System.nanoTime();
+                    if (scheduled > now) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(scheduled - now);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    start = scheduled;
+                    scheduled += interval;
+                } else {
+                    start = System.nanoTime();
+                }
+                if (start >= runEnd) {
+                    return;
+                }
+
+                int op = pickOperation();
+                boolean success = true;
+                try {
+                    execute(op);
+                } catch (Exception e) {
+                    success = false;
+                }
+                long end = System.nanoTime();
+                if (start >= warmupEnd) {
+                    if (success) {
+                        histograms[op].recordValue(Math.min(HIGHEST_TRACKABLE_MICROS,
+                                TimeUnit.NANOSECONDS.toMicros(end - start)));
+                    } else {
+                        errors[op]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Picks the next operation, according to the configured mix.
+         */
+        private int pickOperation() {
+            int r = random.nextInt(mixTotal);
+            for (int op = 0; op < mix.length; op++) {
+                r -= mix[op];
+                if (r < 0) {
+                    return op;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Executes a single operation.
+         * @param op
+         * @throws Exception
+         */
+        private void execute(int op) throws Exception {
+            String uuid = readUuids.get(random.nextInt(readUuids.size()));
+            switch (op) {
+            case 0:
+                client.getArtifactMetaData(ArtifactType.XmlDocument(), uuid);
+                break;
+            case 1:
+                client.uploadArtifact(ArtifactType.XmlDocument(), new ByteArrayInputStream(XML_CONTENT),
+                        "load-test-write-" + writeCounter.incrementAndGet() + ".xml");
+                break;
+            case 2:
+                client.query(QUERIES[random.nextInt(QUERIES.length)], 0, 20, "name", true);
+                break;
+            default:
+                uiDownload(uuid);
+                break;
+            }
+        }
+
+        /**
+         * Downloads artifact content through the UI's download service.
+         * @param uuid
+         * @throws IOException
+         */
+        private void uiDownload(String uuid) throws IOException {
+            URL url = new URL(baseUrl + "/s-ramp-ui/app/services/artifactDownload?uuid=" + uuid + "&type=XmlDocument");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            String credentials = user + ":" + password;
+            connection.setRequestProperty("Authorization", "Basic " + DatatypeConverter.printBase64Binary(credentials.getBytes("UTF-8")));
+            InputStream is = null;
+            try {
+                if (connection.getResponseCode() != 200) {
+                    throw new IOException("Unexpected response code: " + connection.getResponseCode());
+                }
+                is = connection.getInputStream();
+                IOUtils.copy(is, new NullOutputStream());
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+    }
+
+}
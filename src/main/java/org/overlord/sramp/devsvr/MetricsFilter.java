@@ -0,0 +1,332 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * Records per-endpoint request metrics (counts, in-flight requests, latency and
+ * response size).  Installed at the front of each context's filter chain.  The
+ * name of the context is configured via the "context" init parameter.  Requests
+ * that go async are recorded when they complete, and the time they spent holding
+ * a request thread is recorded separately (as "{endpoint}-thread").  Their response
+ * size is taken from Jetty's own count of the bytes written, since a request that
+ * goes async via the no-argument startAsync() writes to the unwrapped response.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class MetricsFilter implements Filter {
+
+    private String context;
+
+    /**
+     * Constructor.
+     */
+    public MetricsFilter() {
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        context = config.getInitParameter("context");
+        if (context == null) {
+            context = config.getServletContext().getContextPath();
+        }
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String name = classify(httpRequest);
+        final EndpointMetrics metrics = MetricsRegistry.getInstance().endpoint(context, name);
+        final CountingResponseWrapper countingResponse = new CountingResponseWrapper((HttpServletResponse) response);
+        final Response baseResponse = baseResponse(httpRequest);
+        boolean error = true;
+        boolean async = false;
+        final long start = metrics.begin();
+        try {
+            chain.doFilter(request, countingResponse);
+            if (request.isAsyncStarted()) {
+                // The request is suspended (e.g. an async Errai long-poll) - record the time
+                // it held a thread now, and the full request once it completes
+                async = true;
+                MetricsRegistry.getInstance().endpoint(context, name + "-thread").record(System.nanoTime() - start, 0, false);
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    private final AtomicBoolean ended = new AtomicBoolean();
+                    @Override
+                    public void onComplete(AsyncEvent event) throws IOException {
+                        end(countingResponse.getStatus() >= 500);
+                    }
+                    @Override
+                    public void onTimeout(AsyncEvent event) throws IOException {
+                        end(false);
+                    }
+                    @Override
+                    public void onError(AsyncEvent event) throws IOException {
+                        end(true);
+                    }
+                    @Override
+                    public void onStartAsync(AsyncEvent event) throws IOException {
+                    }
+                    private void end(boolean error) {
+                        if (ended.compareAndSet(false, true)) {
+                            // Output written through the wrapper's writer after the request went
+                            // async is still buffered in it - Jetty 8 notifies the listeners before
+                            // it completes the response, so it can still be flushed here
+                            countingResponse.flushWriter();
+                            long count = countingResponse.getCount();
+                            if (baseResponse != null) {
+                                count = Math.max(count, baseResponse.getContentCount());
+                            }
+                            metrics.end(start, count, error);
+                        }
+                    }
+                });
+            } else {
+                countingResponse.flushWriter();
+                error = countingResponse.getStatus() >= 500;
+            }
+        } finally {
+            if (!async) {
+                metrics.end(start, countingResponse.getCount(), error);
+            }
+        }
+    }
+
+    /**
+     * Gets Jetty's response for the request, if the request is being served by Jetty.
+     * @param request
+     */
+    private static Response baseResponse(HttpServletRequest request) {
+        try {
+            Request baseRequest = Request.getRequest(request);
+            return baseRequest == null ? null : baseRequest.getResponse();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps a request to the name of the endpoint it is recorded against.  Only the
+     * request line and headers are used - the parameters are never touched, since
+     * reading a parameter consumes a form-encoded body.  A POST to /s-ramp is a
+     * query when it carries a multipart/form-data body (the "query", "startIndex",
+     * "count", ... parts) and a batch (application/zip) otherwise.
+     * @param request
+     */
+    protected String classify(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String method = request.getMethod();
+        if (path.equals("/metrics")) {
+            return "metrics";
+        } else if (path.endsWith(".erraiBus")) {
+            return "errai-bus";
+        } else if (path.startsWith("/app/services/artifactDownload")) {
+            return "artifact-download";
+        } else if (path.startsWith("/app/services/artifactUpload")) {
+            return "artifact-upload";
+        } else if (path.startsWith("/app/services/ontologyUpload")) {
+            return "ontology-upload";
+        } else if (path.startsWith("/js/overlord-header-data.js")) {
+            return "header-data";
+        } else if (path.startsWith("/s-ramp")) {
+            // The S-RAMP Atom API (RESTEasy)
+            if (path.startsWith("/s-ramp/ontology")) {
+                return "atom-ontology";
+            } else if (path.endsWith("/media")) {
+                return "atom-content";
+            } else if ((path.equals("/s-ramp") || path.equals("/s-ramp/")) && ("GET".equals(method)
+                    || ("POST".equals(method) && isForm(request.getContentType())))) {
+                return "atom-query";
+            } else if ("POST".equals(method)) {
+                return path.equals("/s-ramp") || path.equals("/s-ramp/") ? "atom-batch" : "atom-create";
+            } else if ("PUT".equals(method)) {
+                return "atom-update";
+            } else if ("DELETE".equals(method)) {
+                return "atom-delete";
+            } else {
+                return "atom-read";
+            }
+        }
+        return "static-resources";
+    }
+
+    /**
+     * @param contentType
+     * @return true if the content type is a (multipart or url-encoded) form
+     */
+    private static boolean isForm(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("multipart/form-data") || type.startsWith("application/x-www-form-urlencoded");
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Counts the bytes written to the response.
+     */
+    private static class CountingResponseWrapper extends HttpServletResponseWrapper {
+
+        private CountingOutputStream outputStream;
+        private PrintWriter writer;
+
+        /**
+         * Constructor.
+         * @param response
+         */
+        public CountingResponseWrapper(HttpServletResponse response) {
+            super(response);
+        }
+
+        /**
+         * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+         */
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new CountingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        /**
+         * @see javax.servlet.ServletResponseWrapper#getWriter()
+         */
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                String encoding = getCharacterEncoding() == null ? "ISO-8859-1" : getCharacterEncoding();
+                try {
+                    writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), encoding));
+                } catch (UnsupportedEncodingException e) {
+                    writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), "ISO-8859-1"));
+                }
+            }
+            return writer;
+        }
+
+        /**
+         * @see javax.servlet.ServletResponseWrapper#flushBuffer()
+         */
+        @Override
+        public void flushBuffer() throws IOException {
+            flushWriter();
+            super.flushBuffer();
+        }
+
+        /**
+         * Flushes any characters buffered by the writer.
+         */
+        public void flushWriter() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        /**
+         * @return the number of bytes written
+         */
+        public long getCount() {
+            return outputStream == null ? 0 : outputStream.count;
+        }
+    }
+
+    /**
+     * An output stream that counts the bytes written through it.
+     */
+    private static class CountingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+        private long count;
+
+        /**
+         * Constructor.
+         * @param delegate
+         */
+        public CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        /**
+         * @see java.io.OutputStream#flush()
+         */
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        /**
+         * @see java.io.OutputStream#close()
+         */
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the request metrics collected across both dev server contexts.  Every
+ * endpoint and filter gets its own {@link EndpointMetrics}, which is also
+ * registered as an MBean (org.overlord.sramp.devsvr:type=endpoint|filter,context=...,name=...).
+ * The registry also keeps track of the request thread pool, the bulkheads and
+ * the session counts.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class MetricsRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    /**
+     * @return the shared metrics registry
+     */
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentSkipListMap<String, EndpointMetrics>();
+    private final ConcurrentMap<String, EndpointMetrics> filters = new ConcurrentSkipListMap<String, EndpointMetrics>();
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentSkipListMap<String, Bulkhead>();
+    private final List<SessionMetricsListener> sessionMetrics = new CopyOnWriteArrayList<SessionMetricsListener>();
+    private volatile ThreadPool threadPool;
+    private volatile Queue<?> threadPoolQueue;
+
+    /**
+     * Constructor.
+     */
+    public MetricsRegistry() {
+    }
+
+    /**
+     * Gets (or creates) the metrics for an endpoint.
+     * @param context
+     * @param name
+     */
+    public EndpointMetrics endpoint(String context, String name) {
+        return get(endpoints, "endpoint", context, name);
+    }
+
+    /**
+     * Gets (or creates) the metrics for a filter.
+     * @param context
+     * @param name
+     */
+    public EndpointMetrics filter(String context, String name) {
+        return get(filters, "filter", context, name);
+    }
+
+    /**
+     * Gets (or creates, as configured by the {@link ServerProfile}) a bulkhead.
+     * @param name
+     */
+    public Bulkhead bulkhead(String name) {
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead == null) {
+            ServerProfile profile = ServerProfile.getInstance();
+            Bulkhead newBulkhead = new Bulkhead(name, profile.getBulkheadMaxConcurrent(name),
+                    profile.getBulkheadMaxQueued(name), profile.getBulkheadTimeout(name));
+            bulkhead = bulkheads.putIfAbsent(name, newBulkhead);
+            if (bulkhead == null) {
+                bulkhead = newBulkhead;
+            }
+        }
+        return bulkhead;
+    }
+
+    /**
+     * @return all bulkheads
+     */
+    public Collection<Bulkhead> getBulkheads() {
+        return bulkheads.values();
+    }
+
+    /**
+     * Adds the session metrics for a context.
+     * @param metrics
+     */
+    public void addSessionMetrics(SessionMetricsListener metrics) {
+        sessionMetrics.add(metrics);
+    }
+
+    /**
+     * @return the session metrics of all contexts
+     */
+    public List<SessionMetricsListener> getSessionMetrics() {
+        return sessionMetrics;
+    }
+
+    /**
+     * Sets the server's request thread pool (and its job queue, if known).
+     * @param threadPool
+     * @param queue
+     */
+    public void setThreadPool(ThreadPool threadPool, Queue<?> queue) {
+        this.threadPool = threadPool;
+        this.threadPoolQueue = queue;
+    }
+
+    /**
+     * @return the server's request thread pool (or null if not known)
+     */
+    public ThreadPool getThreadPool() {
+        return threadPool;
+    }
+
+    /**
+     * @return the thread pool's job queue (or null if not known)
+     */
+    public Queue<?> getThreadPoolQueue() {
+        return threadPoolQueue;
+    }
+
+    /**
+     * @return all endpoint metrics
+     */
+    public Collection<EndpointMetrics> getEndpoints() {
+        return endpoints.values();
+    }
+
+    /**
+     * @return all filter metrics
+     */
+    public Collection<EndpointMetrics> getFilters() {
+        return filters.values();
+    }
+
+    /**
+     * Gets (or creates and registers) metrics.
+     * @param metrics
+     * @param type
+     * @param context
+     * @param name
+     */
+    private EndpointMetrics get(ConcurrentMap<String, EndpointMetrics> metrics, String type, String context, String name) {
+        String key = context + " " + name;
+        EndpointMetrics m = metrics.get(key);
+        if (m == null) {
+            EndpointMetrics newMetrics = new EndpointMetrics(context, name);
+            m = metrics.putIfAbsent(key, newMetrics);
+            if (m == null) {
+                m = newMetrics;
+                register(type, m);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     * @param type
+     * @param metrics
+     */
+    private static void register(String type, EndpointMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName("org.overlord.sramp.devsvr:type=" + type + ",context="
+                    + ObjectName.quote(metrics.getContext()) + ",name=" + ObjectName.quote(metrics.getName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+        } catch (JMException e) {
+            log.warn("Failed to register metrics MBean: " + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Exposes the dev server metrics in the (plain text) Prometheus exposition format.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -2150420393938155413L;
+
+    /**
+     * Constructor.
+     */
+    public MetricsServlet() {
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("text/plain; version=0.0.4");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        PrintWriter writer = resp.getWriter();
+
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        for (EndpointMetrics metrics : registry.getEndpoints()) {
+            writeMetrics(writer, "sramp_request", metrics);
+            writer.println(String.format("sramp_response_bytes_total{%s} %d", labels(metrics), metrics.getResponseBytes()));
+        }
+        for (EndpointMetrics metrics : registry.getFilters()) {
+            writeMetrics(writer, "sramp_filter", metrics);
+        }
+
+        IdentityCache identityCache = IdentityCache.getInstance();
+        writer.println("sramp_identity_cache_size " + identityCache.getSize());
+        writer.println("sramp_identity_cache_hits_total " + identityCache.getHits());
+        writer.println("sramp_identity_cache_misses_total " + identityCache.getMisses());
+        writer.println("sramp_identity_cache_evictions_total " + identityCache.getEvictions());
+
+        for (SessionMetricsListener sessions : registry.getSessionMetrics()) {
+            String labels = "context=\"" + sessions.getContext() + "\"";
+            writer.println(String.format("sramp_sessions_created_total{%s} %d", labels, sessions.getCreated()));
+            writer.println(String.format("sramp_sessions_active{%s} %d", labels, sessions.getActive()));
+            writer.println(String.format("sramp_sessions_refused_total{%s} %d", labels, sessions.getRefused()));
+        }
+
+        QueryCache queryCache = QueryCache.getInstance();
+        if (queryCache.isEnabled()) {
+            writer.println("sramp_query_cache_size " + queryCache.getSize());
+            writer.println("sramp_query_cache_bytes " + queryCache.getBytes());
+            writer.println("sramp_query_cache_hits_total " + queryCache.getHits());
+            writer.println("sramp_query_cache_misses_total " + queryCache.getMisses());
+            writer.println("sramp_query_cache_evictions_total " + queryCache.getEvictions());
+            writer.println("sramp_query_cache_invalidations_total " + queryCache.getInvalidations());
+        }
+
+        ThreadPool threadPool = registry.getThreadPool();
+        if (threadPool != null) {
+            writer.println("sramp_thread_pool_threads " + threadPool.getThreads());
+            writer.println("sramp_thread_pool_idle_threads " + threadPool.getIdleThreads());
+            writer.println("sramp_thread_pool_low_on_threads " + (threadPool.isLowOnThreads() ? 1 : 0));
+            if (threadPool instanceof QueuedThreadPool) {
+                writer.println("sramp_thread_pool_max_threads " + ((QueuedThreadPool) threadPool).getMaxThreads());
+            }
+            if (registry.getThreadPoolQueue() != null) {
+                writer.println("sramp_thread_pool_queued " + registry.getThreadPoolQueue().size());
+            }
+        }
+        for (Bulkhead bulkhead : registry.getBulkheads()) {
+            String labels = "bulkhead=\"" + bulkhead.getName() + "\"";
+            writer.println(String.format("sramp_bulkhead_max_concurrent{%s} %d", labels, bulkhead.getMaxConcurrent()));
+            writer.println(String.format("sramp_bulkhead_active{%s} %d", labels, bulkhead.getActive()));
+            writer.println(String.format("sramp_bulkhead_queued{%s} %d", labels, bulkhead.getQueued()));
+            writer.println(String.format("sramp_bulkhead_rejected_total{%s} %d", labels, bulkhead.getRejected()));
+        }
+
+        BufferPool bufferPool = BufferPool.getInstance();
+        writer.println("sramp_upload_buffers_capacity " + bufferPool.getCapacity());
+        writer.println("sramp_upload_buffers_in_use " + bufferPool.getInUse());
+        writer.println("sramp_upload_buffer_waits_total " + bufferPool.getWaits());
+        writer.println("sramp_upload_buffer_timeouts_total " + bufferPool.getTimeouts());
+        writer.flush();
+    }
+
+    /**
+     * Writes the counters and latency quantiles for a set of metrics.
+     * @param writer
+     * @param prefix
+     * @param metrics
+     */
+    private static void writeMetrics(PrintWriter writer, String prefix, EndpointMetrics metrics) {
+        String labels = labels(metrics);
+        Histogram latencies = metrics.getLatencies();
+        writer.println(String.format("%s_total{%s} %d", prefix, labels, metrics.getRequestCount()));
+        writer.println(String.format("%s_in_flight{%s} %d", prefix, labels, metrics.getInFlight()));
+        writer.println(String.format("%s_errors_total{%s} %d", prefix, labels, metrics.getErrorCount()));
+        for (double quantile : new double[] { 0.5, 0.99, 0.999 }) {
+            writer.println(String.format("%s_latency_ms{%s,quantile=\"%s\"} %.3f", prefix, labels, quantile,
+                    latencies.getValueAtPercentile(quantile * 100) / 1000.0));
+        }
+        writer.println(String.format("%s_latency_ms_max{%s} %.3f", prefix, labels, latencies.getMaxValue() / 1000.0));
+    }
+
+    /**
+     * @param metrics
+     * @return the Prometheus labels identifying the metrics
+     */
+    private static String labels(EndpointMetrics metrics) {
+        return "context=\"" + metrics.getContext() + "\",name=\"" + metrics.getName() + "\"";
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded (by size in bytes), LRU cache of S-RAMP query and feed responses.
+ * Each cached response records which artifact types it depends on, so that
+ * writes only invalidate the responses they could affect:
+ * <ul>
+ *   <li>a query on /s-ramp/{model}/{type} depends on that type</li>
+ *   <li>a query on /s-ramp/{model} depends on every type in the model</li>
+ *   <li>a query on /s-ramp, or one that navigates relationships (a nested predicate or a
+ *       step after the type, e.g. /s-ramp/wsdl/WsdlDocument[@name = 'foo']/importedXsds),
+ *       depends on everything</li>
+ *   <li>a query using classifiedBy/exactlyClassifiedBy also depends on the ontologies</li>
+ * </ul>
+ * Writes to core types invalidate that type.  Writes to any other model invalidate
+ * the whole model (and, for WSDLs, the xsd and soap models) because of the
+ * artifacts the repository derives from them.
+ * <p>
+ * Every invalidation bumps a generation counter; a response is only stored if no
+ * invalidation happened while it was being produced, so a query that raced a
+ * write can never leave stale results behind.
+ * <p>
+ * Configured with the following system properties:
+ * <ul>
+ *   <li>s-ramp-dev-server.query-cache - enables the cache (default false, always off with repository=cluster)</li>
+ *   <li>s-ramp-dev-server.query-cache.max-bytes - total size of the cached responses (default 16MB)</li>
+ *   <li>s-ramp-dev-server.query-cache.max-entry-bytes - largest response that will be cached (default 1MB)</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class QueryCache {
+
+    private static final String ALL = "*";
+    private static final String ONTOLOGIES = "ontology";
+    private static final Pattern QUERY_TARGET = Pattern.compile("^/s-ramp(?:/([A-Za-z0-9_]+)(?:/([A-Za-z0-9_]+))?)?");
+
+    private static final QueryCache instance = new QueryCache(
+            Boolean.getBoolean("s-ramp-dev-server.query-cache")
+                    // Writes made on the other nodes of a cluster would never invalidate it
+                    && !"cluster".equals(System.getProperty("s-ramp-dev-server.repository")),
+            Long.getLong("s-ramp-dev-server.query-cache.max-bytes", 16 * 1024 * 1024L),
+            Long.getLong("s-ramp-dev-server.query-cache.max-entry-bytes", 1024 * 1024L));
+
+    /**
+     * @return the shared query cache
+     */
+    public static QueryCache getInstance() {
+        return instance;
+    }
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<String, CachedResponse>(64, 0.75f, true);
+    private long bytes;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param enabled
+     * @param maxBytes
+     * @param maxEntryBytes
+     */
+    public QueryCache(boolean enabled, long maxBytes, long maxEntryBytes) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the largest response that will be cached
+     */
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @return the current generation - to be passed to {@link #put} once the response is ready
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Gets a cached response.
+     * @param key
+     * @return the response, or null if it isn't cached
+     */
+    public synchronized CachedResponse get(String key) {
+        CachedResponse response = responses.get(key);
+        if (response == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     * Caches a response, unless it is too big or something was invalidated since
+     * the given generation.
+     * @param key
+     * @param response
+     * @param startGeneration the generation when the response started being produced
+     */
+    public synchronized void put(String key, CachedResponse response, long startGeneration) {
+        if (response.body.length > maxEntryBytes || generation.get() != startGeneration) {
+            return;
+        }
+        CachedResponse old = responses.put(key, response);
+        if (old != null) {
+            bytes -= old.body.length;
+        }
+        bytes += response.body.length;
+        Iterator<CachedResponse> iter = responses.values().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            bytes -= iter.next().body.length;
+            iter.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Works out which types the results of a query (or feed) depend on.
+     * @param path the request path (e.g. /s-ramp/xsd/XsdDocument)
+     * @param query the S-RAMP query, if any (e.g. /s-ramp/core/Document[@name = 'foo'])
+     */
+    public Set<String> dependencies(String path, String query) {
+        Set<String> dependencies = new HashSet<String>();
+        String target = query != null ? query.trim() : path;
+        Matcher matcher = QUERY_TARGET.matcher(target);
+        boolean matched = matcher.find();
+        if (!matched || matcher.group(1) == null) {
+            dependencies.add(ALL);
+        } else if (matcher.group(2) == null) {
+            dependencies.add(matcher.group(1) + "/" + ALL);
+        } else {
+            dependencies.add(matcher.group(1) + "/" + matcher.group(2));
+        }
+        if (query != null) {
+            String predicates = matched ? target.substring(matcher.end()) : target;
+            int depth = 0;
+            char quote = 0;
+            for (char c : predicates.toCharArray()) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if ((c == '[' && ++depth > 1) || c == '/') {
+                    // Navigates a relationship, so depends on other artifacts too
+                    dependencies.add(ALL);
+                } else if (c == ']') {
+                    depth--;
+                }
+            }
+            if (predicates.contains("classifiedBy")) {
+                dependencies.add(ONTOLOGIES);
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Invalidates the cached responses affected by a write to the given type.
+     * @param model the artifact model (e.g. core, xsd, ext)
+     * @param type the artifact type (may be null if unknown)
+     */
+    public void invalidate(String model, String type) {
+        Set<String> affected = new HashSet<String>();
+        if (model == null) {
+            affected.add(ALL);
+        } else if ("core".equals(model) && type != null) {
+            affected.add(model + "/" + type);
+        } else {
+            affected.add(model + "/" + ALL);
+            if ("wsdl".equals(model)) {
+                affected.add("xsd/" + ALL);
+                affected.add("soap/" + ALL);
+            }
+        }
+        invalidate(affected);
+    }
+
+    /**
+     * Invalidates the cached responses that depend on the ontologies.
+     */
+    public void invalidateOntologies() {
+        invalidate(Collections.singleton(ONTOLOGIES));
+    }
+
+    /**
+     * Invalidates every cached response with a dependency on any of the given types.
+     * @param affected types ("model/type"), whole models ("model/*") or "*" for everything
+     */
+    private synchronized void invalidate(Set<String> affected) {
+        if (!enabled) {
+            return;
+        }
+        generation.incrementAndGet();
+        Iterator<Entry<String, CachedResponse>> iter = responses.entrySet().iterator();
+        while (iter.hasNext()) {
+            CachedResponse response = iter.next().getValue();
+            if (isAffected(response.dependencies, affected)) {
+                bytes -= response.body.length;
+                iter.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param dependencies what a cached response depends on
+     * @param affected what was written
+     */
+    private static boolean isAffected(Set<String> dependencies, Set<String> affected) {
+        if (affected.contains(ALL) || dependencies.contains(ALL)) {
+            return true;
+        }
+        for (String dependency : dependencies) {
+            if (affected.contains(dependency)) {
+                return true;
+            }
+            // A write to a single type also affects queries across its model
+            int idx = dependency.indexOf('/');
+            if (idx != -1 && dependency.endsWith("/" + ALL)) {
+                String model = dependency.substring(0, idx + 1);
+                for (String a : affected) {
+                    if (a.startsWith(model)) {
+                        return true;
+                    }
+                }
+            } else if (idx != -1 && affected.contains(dependency.substring(0, idx + 1) + ALL)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of responses evicted to make room
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of responses removed because of writes
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public synchronized int getSize() {
+        return responses.size();
+    }
+
+    /**
+     * @return the total size of the cached responses
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * A cached query response.
+     */
+    public static class CachedResponse {
+        private final String contentType;
+        private final byte[] body;
+        private final Set<String> dependencies;
+
+        /**
+         * Constructor.
+         * @param contentType
+         * @param body
+         * @param dependencies
+         */
+        public CachedResponse(String contentType, byte[] body, Set<String> dependencies) {
+            this.contentType = contentType;
+            this.body = body;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * @return the content type
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the response body
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.RequestContext;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Serves repeated S-RAMP queries (GET or form POST /s-ramp?query=...) and artifact feeds
+ * (GET /s-ramp/{model} and /s-ramp/{model}/{type}) from the {@link QueryCache},
+ * and invalidates the cache whenever something is written through the Atom API
+ * (artifacts, batches and ontologies).
+ * <p>
+ * The S-RAMP client POSTs its queries to /s-ramp as multipart/form-data (with
+ * "query", "startIndex", "count", "orderBy", "ascending" and "propertyName" parts).
+ * Such requests are reads, so they never invalidate the cache: the (small) body is
+ * buffered, its parts are parsed for the cache key, and the buffered body is then
+ * handed on to RESTEasy.
+ * <p>
+ * Responses are cached per normalized query, paging and sort parameters, the
+ * requested representation, and the caller's roles (from the "roles" init
+ * parameter, a comma separated list) - so callers with different roles never
+ * share results.  Atom responses contain absolute links, so the scheme, host and
+ * port the request was made to are part of the key as well.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class QueryCacheFilter implements Filter {
+
+    private static final String[] KEY_PARAMETERS = { "startPage", "startIndex", "count", "orderBy", "ascending",
+            "propertyName" };
+    private static final int MAX_FORM_SIZE = 64 * 1024;
+
+    private QueryCache cache;
+    private String[] roles;
+
+    /**
+     * Constructor.
+     */
+    public QueryCacheFilter() {
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        cache = QueryCache.getInstance();
+        String roleList = config.getInitParameter("roles");
+        roles = roleList == null ? new String[0] : roleList.split(",");
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        if (!cache.isEnabled()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        String[] segments = path.split("/");
+        String method = httpRequest.getMethod();
+        // Queries can also be POSTed as a form
+        boolean isFormPost = "POST".equals(method) && httpRequest.getContentType() != null
+                && httpRequest.getContentType().startsWith("application/x-www-form-urlencoded");
+        boolean isMultipartPost = "POST".equals(method) && segments.length == 2 && httpRequest.getContentType() != null
+                && httpRequest.getContentType().toLowerCase().startsWith("multipart/form-data");
+
+        if (isMultipartPost) {
+            doMultipartQuery(httpRequest, httpResponse, chain, path);
+            return;
+        }
+        if (!"GET".equals(method) && !(isFormPost && segments.length == 2)) {
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                if (!"HEAD".equals(method) && !"OPTIONS".equals(method)) {
+                    invalidate(segments);
+                }
+            }
+            return;
+        }
+
+        // Only queries and feeds are cached - not individual artifacts or their content
+        String query = normalize(httpRequest.getParameter("query"));
+        boolean isQuery = segments.length == 2 && query != null;
+        boolean isFeed = "GET".equals(method) && (segments.length == 3 || segments.length == 4)
+                && !"ontology".equals(segments[2]);
+        if (!isQuery && !isFeed) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        serve(httpRequest, httpResponse, chain, path, query, null);
+    }
+
+    /**
+     * Handles a query POSTed as multipart/form-data - a read, so it never
+     * invalidates anything.
+     * @param request
+     * @param response
+     * @param chain
+     * @param path
+     * @throws IOException
+     * @throws ServletException
+     */
+    private void doMultipartQuery(HttpServletRequest request, HttpServletResponse response, FilterChain chain,
+            String path) throws IOException, ServletException {
+        int length = request.getContentLength();
+        if (length < 0 || length > MAX_FORM_SIZE) {
+            // Not worth buffering - just don't cache it
+            chain.doFilter(request, response);
+            return;
+        }
+        byte[] body = IOUtils.toByteArray(request.getInputStream());
+        HttpServletRequest bufferedRequest = new BufferedRequestWrapper(request, body);
+        Map<String, List<String>> form = parseForm(request.getContentType(), request.getCharacterEncoding(), body);
+        String query = form == null || !form.containsKey("query") ? null : normalize(form.get("query").get(0));
+        if (query == null) {
+            chain.doFilter(bufferedRequest, response);
+            return;
+        }
+        serve(bufferedRequest, response, chain, path, query, form);
+    }
+
+    /**
+     * Serves a query or feed from the cache, or runs it and caches the response.
+     * @param request
+     * @param httpResponse
+     * @param chain
+     * @param path
+     * @param query
+     * @param form the parsed multipart form, or null to use the request parameters
+     * @throws IOException
+     * @throws ServletException
+     */
+    private void serve(HttpServletRequest request, HttpServletResponse httpResponse, FilterChain chain, String path,
+            String query, Map<String, List<String>> form) throws IOException, ServletException {
+        String key = key(request, path, query, form);
+        QueryCache.CachedResponse cached = cache.get(key);
+        if (cached != null) {
+            httpResponse.setContentType(cached.getContentType());
+            httpResponse.setContentLength(cached.getBody().length);
+            httpResponse.setHeader("X-Query-Cache", "hit");
+            httpResponse.getOutputStream().write(cached.getBody());
+            return;
+        }
+
+        long generation = cache.getGeneration();
+        CapturingResponseWrapper capturingResponse = new CapturingResponseWrapper(httpResponse,
+                cache.getMaxEntryBytes());
+        chain.doFilter(request, capturingResponse);
+        capturingResponse.flushWriter();
+        if (capturingResponse.getStatus() == HttpServletResponse.SC_OK && !capturingResponse.isOverflowed()) {
+            cache.put(key, new QueryCache.CachedResponse(capturingResponse.getContentType(),
+                    capturingResponse.getCaptured(), cache.dependencies(path, query)), generation);
+        }
+    }
+
+    /**
+     * Invalidates the cached responses affected by a write to the given path
+     * (/s-ramp, /s-ramp/ontology/..., /s-ramp/{model}/{type}/...).
+     * @param segments
+     */
+    private void invalidate(String[] segments) {
+        if (segments.length < 3) {
+            // Batch (or unknown) - could have written anything
+            cache.invalidate(null, null);
+        } else if ("ontology".equals(segments[2])) {
+            cache.invalidateOntologies();
+        } else {
+            cache.invalidate(segments[2], segments.length > 3 ? segments[3] : null);
+        }
+    }
+
+    /**
+     * Parses the parts of a multipart form that make up a query.
+     * @param contentType
+     * @param encoding
+     * @param body
+     * @return the values of each part (by name), or null if the form can't be parsed
+     * @throws IOException
+     */
+    private static Map<String, List<String>> parseForm(final String contentType, final String encoding,
+            final byte[] body) throws IOException {
+        Map<String, List<String>> form = new HashMap<String, List<String>>();
+        try {
+            FileItemIterator iter = new ServletFileUpload().getItemIterator(new RequestContext() {
+                @Override
+                public String getCharacterEncoding() {
+                    return encoding;
+                }
+                @Override
+                public String getContentType() {
+                    return contentType;
+                }
+                @Override
+                public int getContentLength() {
+                    return body.length;
+                }
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new ByteArrayInputStream(body);
+                }
+            });
+            while (iter.hasNext()) {
+                FileItemStream item = iter.next();
+                String name = item.getFieldName();
+                if (!"query".equals(name) && !Arrays.asList(KEY_PARAMETERS).contains(name)) {
+                    continue;
+                }
+                List<String> values = form.get(name);
+                if (values == null) {
+                    values = new ArrayList<String>();
+                    form.put(name, values);
+                }
+                values.add(Streams.asString(item.openStream(), "UTF-8"));
+            }
+        } catch (FileUploadException e) {
+            return null;
+        }
+        return form;
+    }
+
+    /**
+     * Creates the cache key for a query or feed request.
+     * @param request
+     * @param path
+     * @param query
+     * @param form the parsed multipart form, or null to use the request parameters
+     */
+    private String key(HttpServletRequest request, String path, String query, Map<String, List<String>> form) {
+        StringBuilder key = new StringBuilder();
+        // The links in the response are built from the request URL
+        key.append(request.getScheme()).append("://").append(request.getServerName()).append(':')
+                .append(request.getServerPort()).append(path);
+        key.append('\n').append(query == null ? "" : query);
+        Map<String, String> parameters = new TreeMap<String, String>();
+        for (String name : KEY_PARAMETERS) {
+            List<String> values = form == null ? null : form.get(name);
+            if (form == null && request.getParameterValues(name) != null) {
+                values = Arrays.asList(request.getParameterValues(name));
+            }
+            if (values != null) {
+                List<String> sorted = new ArrayList<String>(values);
+                Collections.sort(sorted);
+                parameters.put(name, sorted.toString());
+            }
+        }
+        for (Entry<String, String> entry : parameters.entrySet()) {
+            key.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        key.append("\naccept=").append(request.getHeader("Accept"));
+        key.append("\nroles=");
+        for (String role : roles) {
+            if (request.isUserInRole(role.trim())) {
+                key.append(role.trim()).append(',');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Normalizes an S-RAMP query (prefix and whitespace) so that trivially
+     * different forms of the same query share a cache entry.
+     * @param query
+     */
+    private static String normalize(String query) {
+        if (query == null || query.trim().length() == 0) {
+            return null;
+        }
+        StringBuilder normalized = new StringBuilder();
+        boolean inLiteral = false;
+        char quote = 0;
+        boolean space = false;
+        for (char c : query.trim().toCharArray()) {
+            if (inLiteral) {
+                normalized.append(c);
+                inLiteral = c != quote;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                space = false;
+                normalized.append(c);
+                if (c == '\'' || c == '"') {
+                    inLiteral = true;
+                    quote = c;
+                }
+            }
+        }
+        String rval = normalized.toString();
+        if (!rval.startsWith("/")) {
+            rval = "/s-ramp/" + rval;
+        }
+        return rval;
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Replays a request body that has already been read.
+     */
+    private static class BufferedRequestWrapper extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        /**
+         * Constructor.
+         * @param request
+         * @param body
+         */
+        public BufferedRequestWrapper(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        /**
+         * @see javax.servlet.ServletRequestWrapper#getInputStream()
+         */
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            final ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() throws IOException {
+                    return in.read();
+                }
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return in.read(b, off, len);
+                }
+                @Override
+                public int available() throws IOException {
+                    return in.available();
+                }
+            };
+        }
+    }
+
+    /**
+     * Passes the response through while keeping a copy of it (up to a limit).
+     */
+    private static class CapturingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final long maxCapture;
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        private boolean overflowed;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+        private int status = SC_OK;
+
+        /**
+         * Constructor.
+         * @param response
+         * @param maxCapture the largest response body that will be captured
+         */
+        public CapturingResponseWrapper(HttpServletResponse response, long maxCapture) {
+            super(response);
+            this.maxCapture = maxCapture;
+        }
+
+        /**
+         * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+         */
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        delegate.write(b);
+                        capture(new byte[] { (byte) b }, 0, 1);
+                    }
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        delegate.write(b, off, len);
+                        capture(b, off, len);
+                    }
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        /**
+         * @see javax.servlet.ServletResponseWrapper#getWriter()
+         */
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                String encoding = getCharacterEncoding() == null ? "ISO-8859-1" : getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), encoding));
+            }
+            return writer;
+        }
+
+        /**
+         * @see javax.servlet.http.HttpServletResponseWrapper#setStatus(int)
+         */
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+            super.setStatus(sc);
+        }
+
+        /**
+         * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int)
+         */
+        @Override
+        public void sendError(int sc) throws IOException {
+            status = sc;
+            super.sendError(sc);
+        }
+
+        /**
+         * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int, java.lang.String)
+         */
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            status = sc;
+            super.sendError(sc, msg);
+        }
+
+        /**
+         * @param b
+         * @param off
+         * @param len
+         */
+        private void capture(byte[] b, int off, int len) {
+            if (overflowed) {
+                return;
+            }
+            if (captured.size() + len > maxCapture) {
+                overflowed = true;
+                captured.reset();
+            } else {
+                captured.write(b, off, len);
+            }
+        }
+
+        /**
+         * Flushes the writer (if one was used).
+         */
+        public void flushWriter() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        /**
+         * @return the response status
+         */
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return true if the response was too big to capture
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * @return the captured response body
+         */
+        public byte[] getCaptured() {
+            return captured.toByteArray();
+        }
+    }
+
+}
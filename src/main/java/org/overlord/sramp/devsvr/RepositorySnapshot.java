@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Captures and restores snapshots of the file-based repository (content store,
+ * binaries and indexes).  A snapshot is simply a copy of the repository's data
+ * directory, so restoring one is a bulk file copy whose cost does not depend on
+ * how the content got into the repository in the first place.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class RepositorySnapshot {
+
+    private final File snapshotDir;
+
+    /**
+     * Constructor.
+     * @param snapshotDir
+     */
+    public RepositorySnapshot(File snapshotDir) {
+        this.snapshotDir = snapshotDir;
+    }
+
+    /**
+     * @return true if a snapshot has been captured
+     */
+    public boolean exists() {
+        return snapshotDir.isDirectory();
+    }
+
+    /**
+     * Captures a snapshot of the given data directory.  The repository must have
+     * been shut down first - copying a running repository's store and indexes
+     * can produce a torn snapshot.  The snapshot is first
+     * copied into a temporary directory and then moved into place, so an
+     * interrupted capture never leaves a partial snapshot behind.
+     * @param dataDir
+     * @throws IOException
+     */
+    public void capture(File dataDir) throws IOException {
+        File tempDir = new File(snapshotDir.getParentFile(), snapshotDir.getName() + ".tmp");
+        FileUtils.deleteDirectory(tempDir);
+        copy(dataDir.toPath(), tempDir.toPath());
+        FileUtils.deleteDirectory(snapshotDir);
+        Files.move(tempDir.toPath(), snapshotDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the contents of the given data directory with the snapshot.
+     * @param dataDir
+     * @throws IOException
+     */
+    public void restore(File dataDir) throws IOException {
+        FileUtils.deleteDirectory(dataDir);
+        copy(snapshotDir.toPath(), dataDir.toPath());
+    }
+
+    /**
+     * Copies a directory tree.  Lock files are skipped - they belong to the
+     * repository instance that created them.
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    private static void copy(final Path from, final Path to) throws IOException {
+        Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(to.resolve(from.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!file.getFileName().toString().endsWith(".lock")) {
+                    Files.copy(file, to.resolve(from.relativize(file)), StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.InputStream;
+
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.overlord.sramp.atom.archive.SrampArchive;
+import org.overlord.sramp.common.ArtifactType;
+
+/**
+ * Something that the dev server can seed artifacts into - either the S-RAMP
+ * Atom API (over HTTP) or the repository itself (in-process).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public interface SeedTarget {
+
+    /**
+     * Adds an ontology.
+     * @param content the ontology (RDF)
+     * @throws Exception
+     */
+    public void uploadOntology(InputStream content) throws Exception;
+
+    /**
+     * Adds an artifact.
+     * @param type
+     * @param content
+     * @param fileName
+     * @return the newly created artifact
+     * @throws Exception
+     */
+    public BaseArtifactType uploadArtifact(ArtifactType type, InputStream content, String fileName) throws Exception;
+
+    /**
+     * Updates the meta-data of an existing artifact.
+     * @param artifact
+     * @throws Exception
+     */
+    public void updateArtifactMetaData(BaseArtifactType artifact) throws Exception;
+
+    /**
+     * Adds all of the artifacts in an S-RAMP archive.
+     * @param archive
+     * @throws Exception
+     */
+    public void uploadBatch(SrampArchive archive) throws Exception;
+
+}
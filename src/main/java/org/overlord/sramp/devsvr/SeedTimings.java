@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects per-stage timings while the repository is being seeded.  Stages
+ * may be recorded from multiple worker threads - each stage accumulates the
+ * total time spent in it along with the number of times it was executed.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class SeedTimings {
+
+    private static final Logger log = LoggerFactory.getLogger(SeedTimings.class);
+
+    private final long startTime = System.currentTimeMillis();
+    private final Map<String, long[]> stages = new LinkedHashMap<String, long[]>();
+
+    /**
+     * Constructor.
+     */
+    public SeedTimings() {
+    }
+
+    /**
+     * Records a single execution of the given stage.
+     * @param stage
+     * @param startMillis when the stage execution started
+     */
+    public void record(String stage, long startMillis) {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        synchronized (stages) {
+            long[] totals = stages.get(stage);
+            if (totals == null) {
+                totals = new long[2];
+                stages.put(stage, totals);
+            }
+            totals[0] += elapsed;
+            totals[1]++;
+        }
+        FlightRecorderEvents.SEED_STEP.record(stage, elapsed);
+    }
+
+    /**
+     * Logs a summary of all recorded stages.
+     */
+    public void report() {
+        long wallClock = System.currentTimeMillis() - startTime;
+        log.info("----------  Seed Timings  ---------------");
+        synchronized (stages) {
+            for (Entry<String, long[]> entry : stages.entrySet()) {
+                long[] totals = entry.getValue();
+                log.info(String.format("  %-30s %8dms  (%d)", entry.getKey(), totals[0], totals[1]));
+            }
+        }
+        log.info(String.format("  %-30s %8dms", "wall clock", wallClock));
+    }
+
+}
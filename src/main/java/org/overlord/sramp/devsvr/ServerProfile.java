@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The Jetty tuning profile for the dev server: connector settings, the request
+ * thread pool and the per-context bulkheads.  Settings are read from the
+ * properties file named by s-ramp-dev-server.server.profile (if any) and can be
+ * overridden by system properties of the form s-ramp-dev-server.server.{setting}.
+ * <p>
+ * Server settings (anything not set keeps the Jetty default):
+ * <ul>
+ *   <li>acceptors - number of acceptor (and selector) threads</li>
+ *   <li>accept-queue-size - the connector's TCP backlog</li>
+ *   <li>idle-timeout - connection idle timeout (ms)</li>
+ *   <li>min-threads, max-threads - request thread pool size</li>
+ *   <li>max-queued - maximum number of jobs waiting for a thread</li>
+ *   <li>thread-idle-timeout - how long (ms) an idle pool thread is kept</li>
+ *   <li>virtual-threads - run requests on virtual threads (when the JDK supports them)</li>
+ * </ul>
+ * Bulkhead settings, for each of the "ui", "errai" and "api" bulkheads:
+ * <ul>
+ *   <li>bulkhead.{name}.max-concurrent - requests allowed to run at once (0 disables the bulkhead)</li>
+ *   <li>bulkhead.{name}.max-queued - requests allowed to wait for a slot</li>
+ *   <li>bulkhead.{name}.timeout - how long (ms) a request waits before it is rejected</li>
+ * </ul>
+ * A bulkhead slot is held for as long as the request holds its thread.  With the
+ * default (blocking) Errai transport that is the whole of each long-poll, so
+ * bulkhead.errai.max-concurrent effectively caps the number of open UI pages (each
+ * keeps a long-poll outstanding); with the async and continuations transports the
+ * slot is released as soon as the long-poll is suspended.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ServerProfile {
+
+    private static final String PREFIX = "s-ramp-dev-server.server.";
+
+    private static ServerProfile instance;
+
+    /**
+     * @return the server profile
+     */
+    public static synchronized ServerProfile getInstance() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the server profile from the profile file and system properties.
+     */
+    private static ServerProfile load() {
+        Properties properties = new Properties();
+        String profileFile = System.getProperty(PREFIX + "profile");
+        if (profileFile != null) {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(new File(profileFile));
+                properties.load(is);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load server profile: " + profileFile, e);
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PREFIX) && !name.equals(PREFIX + "profile")) {
+                properties.setProperty(name.substring(PREFIX.length()), System.getProperty(name));
+            }
+        }
+        return new ServerProfile(properties);
+    }
+
+    private final Properties properties;
+
+    /**
+     * Constructor.
+     * @param properties
+     */
+    public ServerProfile(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @return true if any of the server (connector or thread pool) settings are configured
+     */
+    public boolean isServerTuned() {
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith("bulkhead.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of acceptors (or -1 for the default)
+     */
+    public int getAcceptors() {
+        return getInt("acceptors", -1);
+    }
+
+    /**
+     * @return the connector accept queue size (or -1 for the default)
+     */
+    public int getAcceptQueueSize() {
+        return getInt("accept-queue-size", -1);
+    }
+
+    /**
+     * @return the connection idle timeout in ms (or -1 for the default)
+     */
+    public int getIdleTimeout() {
+        return getInt("idle-timeout", -1);
+    }
+
+    /**
+     * @return the minimum number of request threads (or -1 for the default)
+     */
+    public int getMinThreads() {
+        return getInt("min-threads", -1);
+    }
+
+    /**
+     * @return the maximum number of request threads (or -1 for the default)
+     */
+    public int getMaxThreads() {
+        return getInt("max-threads", -1);
+    }
+
+    /**
+     * @return the maximum number of queued jobs (or -1 for unbounded)
+     */
+    public int getMaxQueued() {
+        return getInt("max-queued", -1);
+    }
+
+    /**
+     * @return the thread idle timeout in ms (or -1 for the default)
+     */
+    public int getThreadIdleTimeout() {
+        return getInt("thread-idle-timeout", -1);
+    }
+
+    /**
+     * @return true if requests should run on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return "true".equals(properties.getProperty("virtual-threads"));
+    }
+
+    /**
+     * @param bulkhead
+     * @return the maximum number of concurrent requests for the bulkhead (0 means unlimited)
+     */
+    public int getBulkheadMaxConcurrent(String bulkhead) {
+        return getInt("bulkhead." + bulkhead + ".max-concurrent", 0);
+    }
+
+    /**
+     * @param bulkhead
+     * @return the maximum number of requests that may wait on the bulkhead
+     */
+    public int getBulkheadMaxQueued(String bulkhead) {
+        return getInt("bulkhead." + bulkhead + ".max-queued", 50);
+    }
+
+    /**
+     * @param bulkhead
+     * @return how long (ms) a request waits on the bulkhead before being rejected
+     */
+    public long getBulkheadTimeout(String bulkhead) {
+        return getInt("bulkhead." + bulkhead + ".timeout", 10000);
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     */
+    private int getInt(String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid server profile setting " + name + ": " + value);
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ServerProfile " + properties;
+    }
+
+}
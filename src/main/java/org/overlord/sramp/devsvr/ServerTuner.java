@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.AbstractNIOConnector;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies a {@link ServerProfile} to the Jetty server.  The dev server doesn't
+ * create the server itself, so this is done while the server is starting - after
+ * the handlers have been added but before the thread pool and connectors have
+ * been started (see {@link SrampDevServer#addModulesToJetty}).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ServerTuner {
+
+    private static final Logger log = LoggerFactory.getLogger(ServerTuner.class);
+
+    /**
+     * Applies the profile to the server.
+     * @param server
+     * @param profile
+     */
+    public static void apply(Server server, ServerProfile profile) {
+        ThreadPool threadPool = server.getThreadPool();
+        if (profile.isServerTuned()) {
+            threadPool = tuneThreadPool(server, profile);
+            for (Connector connector : server.getConnectors()) {
+                tuneConnector(connector, profile);
+            }
+            log.info("Applied " + profile);
+        }
+        if (MetricsRegistry.getInstance().getThreadPool() == null) {
+            MetricsRegistry.getInstance().setThreadPool(threadPool, null);
+        }
+    }
+
+    /**
+     * Configures (or replaces) the server's request thread pool.
+     * @param server
+     * @param profile
+     * @return the thread pool
+     */
+    private static ThreadPool tuneThreadPool(Server server, ServerProfile profile) {
+        ThreadPool current = server.getThreadPool();
+        boolean started = current instanceof LifeCycle && ((LifeCycle) current).isStarted();
+        if (started) {
+            // Too late to replace the pool - only its sizes can still be changed
+            log.warn("Server thread pool already started; queue and virtual thread settings ignored.");
+            if (current instanceof QueuedThreadPool) {
+                configure((QueuedThreadPool) current, profile);
+            }
+            return current;
+        }
+
+        if (profile.isVirtualThreads()) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                ThreadPool pool = new ExecutorThreadPool(executor);
+                server.setThreadPool(pool);
+                MetricsRegistry.getInstance().setThreadPool(pool, null);
+                return pool;
+            }
+            log.warn("Virtual threads are not supported by this JVM; using a thread pool.");
+        }
+
+        BlockingQueue<Runnable> queue = profile.getMaxQueued() > 0 ? new ArrayBlockingQueue<Runnable>(profile.getMaxQueued())
+                : new LinkedBlockingQueue<Runnable>();
+        QueuedThreadPool pool = new QueuedThreadPool(queue);
+        pool.setName("sramp-dev-server");
+        configure(pool, profile);
+        server.setThreadPool(pool);
+        MetricsRegistry.getInstance().setThreadPool(pool, queue);
+        return pool;
+    }
+
+    /**
+     * Applies the thread pool sizes.
+     * @param pool
+     * @param profile
+     */
+    private static void configure(QueuedThreadPool pool, ServerProfile profile) {
+        if (profile.getMaxThreads() > 0) {
+            pool.setMaxThreads(profile.getMaxThreads());
+        }
+        if (profile.getMinThreads() > 0) {
+            pool.setMinThreads(profile.getMinThreads());
+        }
+        if (profile.getThreadIdleTimeout() > 0) {
+            pool.setMaxIdleTimeMs(profile.getThreadIdleTimeout());
+        }
+    }
+
+    /**
+     * Configures a connector.
+     * @param connector
+     * @param profile
+     */
+    private static void tuneConnector(Connector connector, ServerProfile profile) {
+        if (profile.getIdleTimeout() > 0) {
+            connector.setMaxIdleTime(profile.getIdleTimeout());
+        }
+        if (connector instanceof AbstractNIOConnector) {
+            AbstractNIOConnector nioConnector = (AbstractNIOConnector) connector;
+            if (connector.isStarted()) {
+                log.warn("Connector " + connector + " already started; acceptor settings ignored.");
+                return;
+            }
+            if (profile.getAcceptors() > 0) {
+                // For the select channel connector this is also the number of selectors
+                nioConnector.setAcceptors(profile.getAcceptors());
+            }
+            if (profile.getAcceptQueueSize() > 0) {
+                nioConnector.setAcceptQueueSize(profile.getAcceptQueueSize());
+            }
+        }
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor, if the JVM supports them (the dev
+     * server is built for Java 7, hence the reflection).
+     * @return the executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+/**
+ * Counts the HTTP sessions created (and still active) in a context, so that the
+ * cost of sessions - and the effect of the stateless API mode - can be measured.
+ * For stateless contexts, {@link StatelessRequestFilter} counts the session
+ * requests it refused instead.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class SessionMetricsListener implements HttpSessionListener {
+
+    private final String context;
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param context
+     */
+    public SessionMetricsListener(String context) {
+        this.context = context;
+        MetricsRegistry.getInstance().addSessionMetrics(this);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpSessionListener#sessionCreated(javax.servlet.http.HttpSessionEvent)
+     */
+    @Override
+    public void sessionCreated(HttpSessionEvent se) {
+        created.incrementAndGet();
+        active.incrementAndGet();
+    }
+
+    /**
+     * @see javax.servlet.http.HttpSessionListener#sessionDestroyed(javax.servlet.http.HttpSessionEvent)
+     */
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        active.decrementAndGet();
+    }
+
+    /**
+     * Called when a session was asked for in a stateless context.
+     */
+    public void sessionRefused() {
+        refused.incrementAndGet();
+    }
+
+    /**
+     * @return the context
+     */
+    public String getContext() {
+        return context;
+    }
+
+    /**
+     * @return the number of sessions created
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of sessions currently active
+     */
+    public long getActive() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of sessions that were asked for but refused (stateless contexts only)
+     */
+    public long getRefused() {
+        return refused.get();
+    }
+
+}
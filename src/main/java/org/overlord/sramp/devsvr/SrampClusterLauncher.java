@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Runs the dev server as a local, multi-node cluster so that the throughput of
+ * the repository can be measured as nodes are added.  Each node is a separate
+ * {@link SrampDevServer} JVM (the server relies on JVM-wide singletons, so nodes
+ * can't share a JVM) running with s-ramp-dev-server.repository=cluster: content
+ * is replicated between the nodes by Infinispan over a loopback-only JGroups
+ * transport, binaries live in a directory shared by all nodes and every node
+ * keeps its own indexes.
+ * <p>
+ * The nodes are started one at a time (only the first one seeds the repository),
+ * a round-robin {@link ClusterProxy} is put in front of them, and the replication
+ * lag between the nodes is measured with a {@link ClusterProbe}.  Then, if
+ * s-ramp-dev-server.load-test is set, the {@link LoadGenerator} is run against
+ * the proxy and the throughput of each node is reported; otherwise the per-node
+ * throughput and replication lag are reported periodically until the launcher is
+ * stopped.
+ * <p>
+ * Configured with the following system properties (all other s-ramp-dev-server.*
+ * properties, and the launcher's -Xmx/-Xms, are passed on to the nodes):
+ * <ul>
+ *   <li>s-ramp-dev-server.cluster.nodes - number of nodes (default 3)</li>
+ *   <li>s-ramp-dev-server.cluster.base-port - HTTP port of the first node, the others follow (default 8081)</li>
+ *   <li>s-ramp-dev-server.cluster.proxy-port - port of the front proxy (default 8080)</li>
+ *   <li>s-ramp-dev-server.cluster.jgroups-base-port - first JGroups port; each node uses two (default 7800)</li>
+ *   <li>s-ramp-dev-server.cluster.dir - directory for the shared binaries and the nodes' data and logs (default target/sramp-cluster)</li>
+ *   <li>s-ramp-dev-server.cluster.clean - delete the cluster directory before starting (default true)</li>
+ *   <li>s-ramp-dev-server.cluster.start-timeout - how long (seconds) to wait for each node to start (default 300)</li>
+ *   <li>s-ramp-dev-server.cluster.lag-timeout - how long (seconds) to wait for a write to show up on every node (default 30)</li>
+ *   <li>s-ramp-dev-server.cluster.report-interval - seconds between reports when not load testing (default 30)</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class SrampClusterLauncher {
+
+    private static final String STARTED_MARKER = "----------  DONE  ---------------";
+
+    /**
+     * Main entry point.
+     * @param args
+     */
+    public static void main(String [] args) throws Exception {
+        AsyncLogging.init();
+        new SrampClusterLauncher().run();
+    }
+
+    private final int nodes = Math.max(1, Integer.getInteger("s-ramp-dev-server.cluster.nodes", 3));
+    private final int basePort = Integer.getInteger("s-ramp-dev-server.cluster.base-port", 8081);
+    private final int proxyPort = Integer.getInteger("s-ramp-dev-server.cluster.proxy-port", 8080);
+    private final int jgroupsBasePort = Integer.getInteger("s-ramp-dev-server.cluster.jgroups-base-port", 7800);
+    private final File clusterDir = new File(System.getProperty("s-ramp-dev-server.cluster.dir", "target/sramp-cluster")).getAbsoluteFile();
+    private final long startTimeout = Integer.getInteger("s-ramp-dev-server.cluster.start-timeout", 300) * 1000L;
+    private final List<Process> processes = new ArrayList<Process>();
+    private final List<Integer> nodePorts = new ArrayList<Integer>();
+
+    /**
+     * Constructor.
+     */
+    public SrampClusterLauncher() {
+    }
+
+    /**
+     * Starts the cluster, measures it and (unless load testing) keeps it running.
+     * @throws Exception
+     */
+    public void run() throws Exception {
+        if (!"false".equals(System.getProperty("s-ramp-dev-server.cluster.clean"))) {
+            FileUtils.deleteDirectory(clusterDir);
+        }
+        clusterDir.mkdirs();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stopNodes();
+            }
+        }, "cluster-shutdown"));
+
+        System.out.println("----------  Starting a " + nodes + " node cluster  ---------------");
+        for (int i = 0; i < nodes; i++) {
+            startNode(i);
+        }
+        ClusterProxy proxy = new ClusterProxy(proxyPort, nodePorts);
+        proxy.start();
+        // The proxy balances connections, not sessions - so the UI has to be used through a node
+        System.out.println("Cluster proxy (S-RAMP API, per-connection round robin) listening on http://localhost:"
+                + proxyPort + "/s-ramp-server");
+        System.out.println("S-RAMP UI (first node): http://localhost:" + basePort + "/s-ramp-ui/index.html");
+
+        ClusterProbe probe = new ClusterProbe(nodePorts, "clusterprobe", "clusterprobe",
+                Integer.getInteger("s-ramp-dev-server.cluster.lag-timeout", 30) * 1000L);
+        if (nodes > 1) {
+            System.out.println("----------  Replication Lag  ---------------");
+            probe.reportReplicationLag(probe.measureReplicationLag());
+        }
+
+        if (Boolean.getBoolean("s-ramp-dev-server.load-test")) {
+            long[] before = probe.sampleRequestCounts();
+            long start = System.currentTimeMillis();
+            new LoadGenerator("http://localhost:" + proxyPort, "loadtester", "loadtester").run();
+            long[] after = probe.sampleRequestCounts();
+            System.out.println("----------  Per-node Throughput (whole load test, including warmup)  ---------------");
+            probe.reportThroughput(before, after, System.currentTimeMillis() - start, proxy);
+            if (nodes > 1) {
+                System.out.println("----------  Replication Lag (after load)  ---------------");
+                probe.reportReplicationLag(probe.measureReplicationLag());
+            }
+            proxy.stop();
+            System.exit(0);
+        }
+
+        long interval = Integer.getInteger("s-ramp-dev-server.cluster.report-interval", 30) * 1000L;
+        long[] before = probe.sampleRequestCounts();
+        long start = System.currentTimeMillis();
+        while (true) {
+            Thread.sleep(interval);
+            long[] after = probe.sampleRequestCounts();
+            long now = System.currentTimeMillis();
+            System.out.println("----------  Per-node Throughput  ---------------");
+            probe.reportThroughput(before, after, now - start, proxy);
+            if (nodes > 1) {
+                probe.reportReplicationLag(probe.measureReplicationLag());
+            }
+            before = after;
+            start = now;
+        }
+    }
+
+    /**
+     * Starts a node and waits for it to finish starting up (and, for the first
+     * node, seeding the repository).
+     * @param node
+     * @throws Exception
+     */
+    private void startNode(int node) throws Exception {
+        int port = basePort + node;
+        File log = new File(clusterDir, "node-" + node + ".log");
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-Xmx") || arg.startsWith("-Xms")) {
+                command.add(arg);
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("s-ramp-dev-server.") && !name.startsWith("s-ramp-dev-server.cluster.")
+                    && !name.equals("s-ramp-dev-server.load-test") && !name.equals("s-ramp-dev-server.port")
+                    && !name.equals("s-ramp-dev-server.repository") && !name.equals("s-ramp-dev-server.data-dir")
+                    && !name.equals("s-ramp-dev-server.log.dir")
+                    && !(node > 0 && name.equals("s-ramp-dev-server.seed-type"))) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-Djava.net.preferIPv4Stack=true");
+        command.add("-Ds-ramp-dev-server.port=" + port);
+        command.add("-Ds-ramp-dev-server.repository=cluster");
+        command.add("-Ds-ramp-dev-server.cluster.dir=" + clusterDir.getPath());
+        command.add("-Ds-ramp-dev-server.data-dir=" + new File(clusterDir, "node-" + node).getPath());
+        command.add("-Ds-ramp-dev-server.log.dir=" + new File(clusterDir, "node-" + node + "/logs").getPath());
+        command.add("-Ds-ramp-dev-server.cluster.jgroups-port=" + jgroupsPort(node, 0));
+        command.add("-Ds-ramp-dev-server.cluster.jgroups-hosts=" + initialHosts(0));
+        command.add("-Ds-ramp-dev-server.cluster.modeshape-jgroups-port=" + jgroupsPort(node, 1));
+        command.add("-Ds-ramp-dev-server.cluster.modeshape-jgroups-hosts=" + initialHosts(1));
+        if (node > 0) {
+            command.add("-Ds-ramp-dev-server.seed-type=none");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SrampDevServer.class.getName());
+
+        System.out.println("Starting node " + node + " on port " + port + " (log: " + log + ")");
+        long start = System.currentTimeMillis();
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(log);
+        Process process = builder.start();
+        processes.add(process);
+        nodePorts.add(port);
+        waitForStartup(node, process, log);
+        System.out.println("Node " + node + " started in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Waits until the node's log shows that it has started.
+     * @param node
+     * @param process
+     * @param log
+     * @throws Exception
+     */
+    private void waitForStartup(int node, Process process, File log) throws Exception {
+        long deadline = System.currentTimeMillis() + startTimeout;
+        while (System.currentTimeMillis() < deadline) {
+            if (log.exists() && FileUtils.readFileToString(log).contains(STARTED_MARKER)) {
+                return;
+            }
+            Integer exitValue = null;
+            try {
+                exitValue = process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                // Still running
+            }
+            if (exitValue != null) {
+                throw new IOException("Node " + node + " exited with status " + exitValue + " - see " + log);
+            }
+            Thread.sleep(500);
+        }
+        throw new IOException("Timed out waiting for node " + node + " to start - see " + log);
+    }
+
+    /**
+     * @param node
+     * @param channel 0 for the Infinispan channel, 1 for the ModeShape channel
+     * @return the JGroups port of the node's channel
+     */
+    private int jgroupsPort(int node, int channel) {
+        return jgroupsBasePort + node * 2 + channel;
+    }
+
+    /**
+     * @param channel 0 for the Infinispan channel, 1 for the ModeShape channel
+     * @return the TCPPING initial hosts for the channel (every node's port)
+     */
+    private String initialHosts(int channel) {
+        StringBuilder hosts = new StringBuilder();
+        for (int i = 0; i < nodes; i++) {
+            if (i > 0) {
+                hosts.append(',');
+            }
+            hosts.append("127.0.0.1[").append(jgroupsPort(i, channel)).append(']');
+        }
+        return hosts.toString();
+    }
+
+    /**
+     * Stops all of the nodes.
+     */
+    private void stopNodes() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+}
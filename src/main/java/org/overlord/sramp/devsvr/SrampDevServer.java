@@ -15,9 +15,18 @@
  */
 package org.overlord.sramp.devsvr;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.security.auth.Subject;
 import javax.servlet.DispatcherType;
@@ -28,19 +37,25 @@ import org.eclipse.jetty.security.ConstraintSecurityHandler;
 import org.eclipse.jetty.security.HashLoginService;
 import org.eclipse.jetty.security.SecurityHandler;
 import org.eclipse.jetty.security.authentication.BasicAuthenticator;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.UserIdentity;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.security.Constraint;
 import org.eclipse.jetty.util.security.Credential;
 import org.jboss.errai.bus.server.servlet.DefaultBlockingServlet;
+import org.jboss.errai.bus.server.servlet.JettyContinuationsServlet;
+import org.jboss.errai.bus.server.servlet.StandardAsyncServlet;
 import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
 import org.jboss.weld.environment.servlet.BeanManagerResourceBindingListener;
 import org.jboss.weld.environment.servlet.Listener;
 import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
 import org.overlord.commons.auth.jetty8.HttpRequestThreadLocalFilter;
-import org.overlord.commons.auth.jetty8.Jetty8SamlBearerTokenAuthFilter;
 import org.overlord.commons.dev.server.DevServerEnvironment;
 import org.overlord.commons.dev.server.ErraiDevServer;
 import org.overlord.commons.dev.server.MultiDefaultServlet;
@@ -53,13 +68,12 @@ import org.overlord.commons.gwt.server.filters.ResourceCacheControlFilter;
 import org.overlord.commons.ui.header.OverlordHeaderDataJS;
 import org.overlord.sramp.atom.archive.SrampArchive;
 import org.overlord.sramp.atom.archive.expand.ZipToSrampArchive;
-import org.overlord.sramp.atom.err.SrampAtomException;
 import org.overlord.sramp.client.SrampAtomApiClient;
-import org.overlord.sramp.client.SrampClientException;
 import org.overlord.sramp.common.ArtifactType;
 import org.overlord.sramp.common.SrampModelUtils;
 import org.overlord.sramp.integration.switchyard.expand.SwitchYardAppToSrampArchive;
 import org.overlord.sramp.repository.jcr.JCRRepository;
+import org.overlord.sramp.repository.jcr.JCRRepositoryFactory;
 import org.overlord.sramp.repository.jcr.modeshape.filters.ServletCredentialsFilter;
 import org.overlord.sramp.server.atom.services.SRAMPApplication;
 import org.overlord.sramp.server.filters.LocaleFilter;
@@ -68,6 +82,8 @@ import org.overlord.sramp.ui.server.api.SAMLBearerTokenAuthenticationProvider;
 import org.overlord.sramp.ui.server.servlets.ArtifactDownloadServlet;
 import org.overlord.sramp.ui.server.servlets.ArtifactUploadServlet;
 import org.overlord.sramp.ui.server.servlets.OntologyUploadServlet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A dev server for s-ramp.
@@ -75,11 +91,19 @@ import org.overlord.sramp.ui.server.servlets.OntologyUploadServlet;
  */
 public class SrampDevServer extends ErraiDevServer {
 
+    private static final Logger log = LoggerFactory.getLogger(SrampDevServer.class);
+
+    private File dataDir;
+    private boolean restoredFromSnapshot;
+    private boolean existingRepository;
+    private ContextHandlerCollection handlers;
+
     /**
      * Main entry point.
      * @param args
      */
     public static void main(String [] args) throws Exception {
+        AsyncLogging.init();
         SrampDevServer devServer = new SrampDevServer(args);
 //        devServer.enableDebug();
         devServer.go();
@@ -101,14 +125,60 @@ public class SrampDevServer extends ErraiDevServer {
         return "s-ramp-ui";
     }
 
+    /**
+     * @see org.overlord.commons.dev.server.DevServer#serverPort()
+     */
+    @Override
+    protected int serverPort() {
+        return Integer.getInteger("s-ramp-dev-server.port", super.serverPort());
+    }
+
     /**
      * @see org.overlord.commons.dev.server.DevServer#preConfig()
      */
     @Override
     protected void preConfig() {
-        // Use an in-memory config for s-ramp
-        System.setProperty("sramp.modeshape.config.url", "classpath://" + JCRRepository.class.getName()
-                + "/META-INF/modeshape-configs/inmemory-sramp-config.json");
+        StartupProfiler.Phase phase = StartupProfiler.getInstance().begin("preConfig");
+        String repositoryType = System.getProperty("s-ramp-dev-server.repository", "inmemory");
+        if ("file".equals(repositoryType)) {
+            // Use a file-based config for s-ramp, optionally restored from a snapshot
+            try {
+                dataDir = new File(System.getProperty("s-ramp-dev-server.data-dir", "target/sramp-data")).getCanonicalFile();
+                System.setProperty("s-ramp-dev-server.data-dir", dataDir.getPath());
+                RepositorySnapshot snapshot = getSnapshot();
+                if (snapshot != null && snapshot.exists() && Boolean.getBoolean("s-ramp-dev-server.snapshot.restore")) {
+                    long start = System.currentTimeMillis();
+                    snapshot.restore(dataDir);
+                    restoredFromSnapshot = true;
+                    log.info("Repository restored from snapshot in " + (System.currentTimeMillis() - start) + "ms");
+                } else {
+                    existingRepository = holdsRepository(dataDir);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            System.setProperty("sramp.modeshape.config.url", "classpath://" + SrampDevServer.class.getName()
+                    + "/org/overlord/sramp/devsvr/file-sramp-config.json");
+        } else if ("cluster".equals(repositoryType)) {
+            // One node of a local cluster (see SrampClusterLauncher) - content is replicated
+            // between the nodes, binaries are shared and each node keeps its own indexes
+            try {
+                dataDir = new File(System.getProperty("s-ramp-dev-server.data-dir",
+                        "target/sramp-cluster/node-" + serverPort())).getCanonicalFile();
+                System.setProperty("s-ramp-dev-server.data-dir", dataDir.getPath());
+                File clusterDir = new File(System.getProperty("s-ramp-dev-server.cluster.dir", "target/sramp-cluster"));
+                System.setProperty("s-ramp-dev-server.cluster.dir", clusterDir.getCanonicalPath());
+                existingRepository = holdsRepository(dataDir);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            System.setProperty("sramp.modeshape.config.url", "classpath://" + SrampDevServer.class.getName()
+                    + "/org/overlord/sramp/devsvr/clustered-sramp-config.json");
+        } else {
+            // Use an in-memory config for s-ramp
+            System.setProperty("sramp.modeshape.config.url", "classpath://" + JCRRepository.class.getName()
+                    + "/META-INF/modeshape-configs/inmemory-sramp-config.json");
+        }
         
         // Authentication provider
 //        System.setProperty("s-ramp-ui.atom-api.authentication.provider", BasicAuthenticationProvider.class.getName());
@@ -120,8 +190,45 @@ public class SrampDevServer extends ErraiDevServer {
         System.setProperty("s-ramp-ui.atom-api.authentication.saml.sign-assertions", "false");
 
         
-        // Don't do any resource caching!
-        System.setProperty("overlord.resource-caching.disabled", "true");
+        // Don't do any resource caching (unless serving the UI resources in production mode)!
+        if (!isProductionResourceMode()) {
+            System.setProperty("overlord.resource-caching.disabled", "true");
+        }
+        phase.end();
+    }
+
+    /**
+     * @return true if the UI's static resources should be served from an in-memory index
+     */
+    private static boolean isProductionResourceMode() {
+        return "production".equals(System.getProperty("s-ramp-dev-server.resources.mode", "dev"));
+    }
+
+    /**
+     * @return true if UI uploads should be streamed straight into the repository
+     */
+    private static boolean isStreamingUploadMode() {
+        return "streaming".equals(System.getProperty("s-ramp-dev-server.upload.mode", "classic"));
+    }
+
+    /**
+     * @param dataDir
+     * @return true if the data directory already holds a (file-based) repository
+     */
+    private static boolean holdsRepository(File dataDir) {
+        String[] stored = new File(dataDir, "store").list();
+        return stored != null && stored.length > 0;
+    }
+
+    /**
+     * @return the configured repository snapshot (or null if none is configured)
+     */
+    private RepositorySnapshot getSnapshot() {
+        String snapshotDir = System.getProperty("s-ramp-dev-server.snapshot.dir");
+        if (snapshotDir == null) {
+            return null;
+        }
+        return new RepositorySnapshot(new File(snapshotDir));
     }
 
     /**
@@ -137,12 +244,21 @@ public class SrampDevServer extends ErraiDevServer {
      */
     @Override
     protected void addModules(DevServerEnvironment environment) {
+        StartupProfiler.Phase phase = StartupProfiler.getInstance().begin("addModules");
+        // The module dir recorded for each module shows which strategy (IDE or Maven) found it
+        StartupProfiler.Phase module = StartupProfiler.getInstance().begin("discover s-ramp-ui");
         environment.addModule("s-ramp-ui",
                 new WebAppModuleFromIDEDiscoveryStrategy(ArtifactSummaryBean.class),
                 new ErraiWebAppModuleFromMavenDiscoveryStrategy(ArtifactSummaryBean.class));
+        module.setDetail(String.valueOf(environment.getModuleDir("s-ramp-ui")));
+        module.end();
+        module = StartupProfiler.getInstance().begin("discover overlord-commons-uiheader");
         environment.addModule("overlord-commons-uiheader",
                 new JarModuleFromIDEDiscoveryStrategy(OverlordHeaderDataJS.class, "src/main/resources/META-INF/resources"),
                 new JarModuleFromMavenDiscoveryStrategy(OverlordHeaderDataJS.class, "/META-INF/resources"));
+        module.setDetail(String.valueOf(environment.getModuleDir("overlord-commons-uiheader")));
+        module.end();
+        phase.end();
     }
 
     /**
@@ -150,7 +266,12 @@ public class SrampDevServer extends ErraiDevServer {
      */
     @Override
     protected void addModulesToJetty(DevServerEnvironment environment, ContextHandlerCollection handlers) throws Exception {
+        StartupProfiler.Phase phase = StartupProfiler.getInstance().begin("addModulesToJetty");
+        this.handlers = handlers;
         super.addModulesToJetty(environment, handlers);
+        boolean jfrRequestEvents = FlightRecorderEvents.isAvailable()
+                && !"false".equals(System.getProperty("s-ramp-dev-server.jfr.request-events"));
+        boolean artifactContent = Boolean.getBoolean("s-ramp-dev-server.artifact-content");
 
         /* *********
          * S-RAMP UI
@@ -163,54 +284,193 @@ public class SrampDevServer extends ErraiDevServer {
         srampUI.setInitParameter("errai.properties", "/WEB-INF/errai.properties");
         srampUI.setInitParameter("login.config", "/WEB-INF/login.config");
         srampUI.setInitParameter("users.properties", "/WEB-INF/users.properties");
+        // Weld's bean scanning happens in its listener
+        srampUI.addEventListener(new StartupPhaseListener("weld /s-ramp-ui", true));
         srampUI.addEventListener(new Listener());
+        srampUI.addEventListener(new StartupPhaseListener("weld /s-ramp-ui", false));
         srampUI.addEventListener(new BeanManagerResourceBindingListener());
+        srampUI.addEventListener(new SessionMetricsListener("/s-ramp-ui"));
+        srampUI.addFilter(MetricsFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST))
+                .setInitParameter("context", "/s-ramp-ui");
+        FilterHolder uiBulkhead = srampUI.addFilter(BulkheadFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+        uiBulkhead.setInitParameter("bulkhead", "ui");
+        uiBulkhead.setInitParameter("exclude", ".erraiBus");
+        // With the blocking Errai transport each long-poll holds its errai bulkhead slot for
+        // its full duration (see ServerProfile)
+        srampUI.addFilter(BulkheadFilter.class, "*.erraiBus", EnumSet.of(DispatcherType.REQUEST))
+                .setInitParameter("bulkhead", "errai");
         srampUI.addFilter(HttpRequestThreadLocalFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
         srampUI.addFilter(GWTCacheControlFilter.class, "/app/*", EnumSet.of(DispatcherType.REQUEST));
         srampUI.addFilter(ResourceCacheControlFilter.class, "/css/*", EnumSet.of(DispatcherType.REQUEST));
         srampUI.addFilter(ResourceCacheControlFilter.class, "/images/*", EnumSet.of(DispatcherType.REQUEST));
         srampUI.addFilter(ResourceCacheControlFilter.class, "/js/*", EnumSet.of(DispatcherType.REQUEST));
-        srampUI.addFilter(org.overlord.sramp.ui.server.filters.LocaleFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+        srampUI.addFilter(new FilterHolder(new TimedFilter("/s-ramp-ui", "locale",
+                new org.overlord.sramp.ui.server.filters.LocaleFilter())), "/*", EnumSet.of(DispatcherType.REQUEST));
+        if (artifactContent) {
+            srampUI.addFilter(ServletCredentialsFilter.class, "/app/services/artifactDownload", EnumSet.of(DispatcherType.REQUEST));
+            srampUI.addFilter(ArtifactContentFilter.class, "/app/services/artifactDownload", EnumSet.of(DispatcherType.REQUEST))
+                    .setInitParameter("mode", "ui");
+        }
+        if (isStreamingUploadMode()) {
+            srampUI.addFilter(ServletCredentialsFilter.class, "/app/services/artifactUpload", EnumSet.of(DispatcherType.REQUEST));
+        }
 
         // Servlets
-        ServletHolder erraiServlet = new ServletHolder(DefaultBlockingServlet.class);
+        String erraiTransport = System.getProperty("s-ramp-dev-server.errai.transport", "blocking");
+        ServletHolder erraiServlet;
+        if ("async".equals(erraiTransport)) {
+            erraiServlet = new TimedServletHolder("errai /s-ramp-ui", StandardAsyncServlet.class);
+        } else if ("continuations".equals(erraiTransport)) {
+            erraiServlet = new TimedServletHolder("errai /s-ramp-ui", JettyContinuationsServlet.class);
+        } else {
+            erraiServlet = new TimedServletHolder("errai /s-ramp-ui", DefaultBlockingServlet.class);
+        }
         erraiServlet.setInitOrder(1);
         srampUI.addServlet(erraiServlet, "*.erraiBus");
         srampUI.addServlet(new ServletHolder(ArtifactDownloadServlet.class), "/app/services/artifactDownload");
-        srampUI.addServlet(new ServletHolder(ArtifactUploadServlet.class), "/app/services/artifactUpload");
+        if (isStreamingUploadMode()) {
+            srampUI.addServlet(new ServletHolder(StreamingArtifactUploadServlet.class), "/app/services/artifactUpload");
+        } else {
+            srampUI.addServlet(new ServletHolder(ArtifactUploadServlet.class), "/app/services/artifactUpload");
+        }
         srampUI.addServlet(new ServletHolder(OntologyUploadServlet.class), "/app/services/ontologyUpload");
         ServletHolder headerDataServlet = new ServletHolder(OverlordHeaderDataJS.class);
         headerDataServlet.setInitParameter("app-id", "s-ramp-ui");
         srampUI.addServlet(headerDataServlet, "/js/overlord-header-data.js");
+        srampUI.addServlet(new ServletHolder(MetricsServlet.class), "/metrics");
         // File resources
-        ServletHolder resources = new ServletHolder(new MultiDefaultServlet());
-        resources.setInitParameter("resourceBase", "/");
-        resources.setInitParameter("resourceBases", environment.getModuleDir("s-ramp-ui").getCanonicalPath()
-                + "|" + environment.getModuleDir("overlord-commons-uiheader").getCanonicalPath());
-        resources.setInitParameter("dirAllowed", "true");
-        resources.setInitParameter("pathInfoOnly", "false");
+        String resourceBases = environment.getModuleDir("s-ramp-ui").getCanonicalPath()
+                + "|" + environment.getModuleDir("overlord-commons-uiheader").getCanonicalPath();
         String[] fileTypes = new String[] { "html", "js", "css", "png", "gif" };
+        ServletHolder resources;
+        if (isProductionResourceMode()) {
+            resources = new ServletHolder(new CachingResourceServlet());
+            resources.setInitParameter("resourceBases", resourceBases);
+            resources.setInitParameter("extensions", "html,js,css,png,gif");
+            resources.setInitOrder(2);
+        } else {
+            resources = new ServletHolder(new MultiDefaultServlet());
+            resources.setInitParameter("resourceBase", "/");
+            resources.setInitParameter("resourceBases", resourceBases);
+            resources.setInitParameter("dirAllowed", "true");
+            resources.setInitParameter("pathInfoOnly", "false");
+        }
         for (String fileType : fileTypes) {
             srampUI.addServlet(resources, "*." + fileType);
         }
+        if (!"blocking".equals(erraiTransport)) {
+            // Non-blocking Errai transports suspend the long-poll requests, which every
+            // filter in the chain must allow
+            erraiServlet.setAsyncSupported(true);
+            for (FilterHolder filter : srampUI.getServletHandler().getFilters()) {
+                filter.setAsyncSupported(true);
+            }
+        }
 
         /* *************
          * S-RAMP server
          * ************* */
-        ServletContextHandler srampServer = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        // In stateless mode the API context has no session manager at all.  Requests are
+        // authenticated from their Authorization header (Basic or SAML bearer token) either way.
+        boolean statelessApi = Boolean.getBoolean("s-ramp-dev-server.api.stateless");
+        ServletContextHandler srampServer = new ServletContextHandler(statelessApi
+                ? ServletContextHandler.NO_SESSIONS : ServletContextHandler.SESSIONS);
+        SessionMetricsListener apiSessions = new SessionMetricsListener("/s-ramp-server");
         srampServer.setSecurityHandler(createUISecurityHandler());
         srampServer.setContextPath("/s-ramp-server");
         ServletHolder resteasyServlet = new ServletHolder(new HttpServletDispatcher());
         resteasyServlet.setInitParameter("javax.ws.rs.Application", SRAMPApplication.class.getName());
         srampServer.addServlet(resteasyServlet, "/*");
-        srampServer.addFilter(Jetty8SamlBearerTokenAuthFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST))
-                .setInitParameter("allowedIssuers", "/s-ramp-ui,/dtgov,/dtgov-ui");
-        srampServer.addFilter(LocaleFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
-        srampServer.addFilter(ServletCredentialsFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
-
-        // Add to handlers
-        handlers.addHandler(srampUI);
-        handlers.addHandler(srampServer);
+        srampServer.addServlet(new ServletHolder(MetricsServlet.class), "/metrics");
+        srampServer.addFilter(MetricsFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST))
+                .setInitParameter("context", "/s-ramp-server");
+        srampServer.addFilter(BulkheadFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST))
+                .setInitParameter("bulkhead", "api");
+        if (jfrRequestEvents) {
+            srampServer.addFilter(FlightRecorderFilter.class, "/s-ramp/*", EnumSet.of(DispatcherType.REQUEST));
+        }
+        if (statelessApi) {
+            srampServer.addFilter(new FilterHolder(new StatelessRequestFilter(apiSessions)), "/*",
+                    EnumSet.of(DispatcherType.REQUEST));
+        } else {
+            srampServer.addEventListener(apiSessions);
+        }
+        FilterHolder samlBearerFilter = new FilterHolder(new TimedFilter("/s-ramp-server", "saml-bearer",
+                new CachingSamlBearerTokenAuthFilter()));
+        samlBearerFilter.setInitParameter("allowedIssuers", "/s-ramp-ui,/dtgov,/dtgov-ui");
+        srampServer.addFilter(samlBearerFilter, "/*", EnumSet.of(DispatcherType.REQUEST));
+        srampServer.addFilter(new FilterHolder(new TimedFilter("/s-ramp-server", "locale", new LocaleFilter())),
+                "/*", EnumSet.of(DispatcherType.REQUEST));
+        srampServer.addFilter(new FilterHolder(new TimedFilter("/s-ramp-server", "servlet-credentials",
+                new ServletCredentialsFilter())), "/*", EnumSet.of(DispatcherType.REQUEST));
+        if (isStreamingUploadMode()) {
+            srampServer.addFilter(UploadThrottleFilter.class, "/s-ramp/*", EnumSet.of(DispatcherType.REQUEST));
+        }
+        if (QueryCache.getInstance().isEnabled()) {
+            srampServer.addFilter(QueryCacheFilter.class, "/s-ramp/*", EnumSet.of(DispatcherType.REQUEST))
+                    .setInitParameter("roles", "overlorduser,admin.sramp");
+        }
+        if (artifactContent) {
+            srampServer.addFilter(ArtifactContentFilter.class, "/s-ramp/*", EnumSet.of(DispatcherType.REQUEST))
+                    .setInitParameter("mode", "atom");
+        }
+
+        // Time the startup of each context (and of the contexts as a whole)
+        timeStartup(srampUI, "start /s-ramp-ui");
+        timeStartup(srampServer, "start /s-ramp-server");
+        timeStartup(handlers, "start contexts");
+
+        // Add to handlers (wrapped in an async access log, unless it's disabled)
+        if ("false".equals(System.getProperty("s-ramp-dev-server.access-log"))) {
+            handlers.addHandler(srampUI);
+            handlers.addHandler(srampServer);
+        } else {
+            handlers.addHandler(accessLogged(srampUI));
+            handlers.addHandler(accessLogged(srampServer));
+        }
+
+        // Apply the server profile once the server starts (before its thread pool and connectors do)
+        handlers.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                ServerTuner.apply(((ContextHandlerCollection) event).getServer(), ServerProfile.getInstance());
+            }
+        });
+        phase.end();
+    }
+
+    /**
+     * Times the startup of a handler as a startup phase.
+     * @param handler
+     * @param name
+     */
+    private static void timeStartup(AbstractLifeCycle handler, final String name) {
+        handler.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                StartupProfiler.getInstance().begin(name);
+            }
+            @Override
+            public void lifeCycleStarted(LifeCycle event) {
+                StartupProfiler.getInstance().end(name);
+            }
+            @Override
+            public void lifeCycleFailure(LifeCycle event, Throwable cause) {
+                StartupProfiler.getInstance().end(name);
+            }
+        });
+    }
+
+    /**
+     * Wraps a context in a handler that writes its requests to the access log.
+     * The context handler collection still maps requests to the context by its path.
+     * @param context
+     */
+    private static Handler accessLogged(ServletContextHandler context) {
+        RequestLogHandler requestLogHandler = new RequestLogHandler();
+        requestLogHandler.setRequestLog(new AccessLog(context.getContextPath()));
+        requestLogHandler.setHandler(context);
+        return requestLogHandler;
     }
 
     /**
@@ -234,6 +494,13 @@ public class SrampDevServer extends ErraiDevServer {
         csh.setLoginService(new HashLoginService() {
             @Override
             public UserIdentity login(String username, Object credentials) {
+                IdentityCache cache = IdentityCache.getInstance();
+                IdentityCache.Key cacheKey = cache.key("jetty", username, credentials);
+                UserIdentity identity = cache.get(cacheKey, UserIdentity.class);
+                if (identity != null) {
+                    return identity;
+                }
+
                 Credential credential = (credentials instanceof Credential) ? (Credential) credentials
                         : Credential.getCredential(credentials.toString());
                 Principal userPrincipal = new KnownUser(username, credential);
@@ -245,7 +512,9 @@ public class SrampDevServer extends ErraiDevServer {
                     subject.getPrincipals().add(new RolePrincipal(role));
                 }
                 subject.setReadOnly();
-                return _identityService.newUserIdentity(subject, userPrincipal, roles);
+                identity = _identityService.newUserIdentity(subject, userPrincipal, roles);
+                cache.put(cacheKey, identity);
+                return identity;
             }
         });
 
@@ -257,137 +526,387 @@ public class SrampDevServer extends ErraiDevServer {
      */
     @Override
     protected void postStart(DevServerEnvironment environment) throws Exception {
-        System.out.println("----------  Seeding the Repository  ---------------");
+        StartupProfiler.Phase phase = StartupProfiler.getInstance().begin("postStart");
+        log.info("----------  Seeding the Repository  ---------------");
 
         SrampAtomApiClient client = new SrampAtomApiClient("http://localhost:"+serverPort()+"/s-ramp-server", "seeder", "seeder", true);
+        SeedTarget target = new AtomSeedTarget(client);
+        String seedMode = System.getProperty("s-ramp-dev-server.seed-mode", "http");
+        if ("in-process".equals(seedMode)) {
+            target = new InProcessSeedTarget(target, "seeder");
+        }
 
         String seedType = System.getProperty("s-ramp-dev-server.seed-type", "none");
-        if ("switchyard".equals(seedType)) {
-            doSwitchYardSeed(client);
-        } else if ("standard".equals(seedType)) {
-            doStandardSeed(client);
-        } else {
-            // no seeding
+        if (restoredFromSnapshot) {
+            log.info("Repository was restored from a snapshot - skipping seeding.");
+            seedType = "none";
+        } else if (existingRepository && !"none".equals(seedType)) {
+            log.info("Repository in " + dataDir + " is already populated - skipping seeding.");
+            seedType = "none";
         }
+        int seedThreads = Integer.getInteger("s-ramp-dev-server.seed-threads", 4);
+        ExecutorService executor = Executors.newFixedThreadPool(seedThreads);
+        SeedTimings timings = new SeedTimings();
+        // The repository (ModeShape) starts up lazily, so its startup is part of the first seed step
+        StartupProfiler.Phase seeding = StartupProfiler.getInstance().begin("seed", seedType);
+        try {
+            if ("switchyard".equals(seedType)) {
+                doSwitchYardSeed(target, executor, seedThreads, timings);
+            } else if ("standard".equals(seedType)) {
+                doStandardSeed(target, executor, timings);
+            } else if ("synthetic".equals(seedType)) {
+                doSyntheticSeed(target, executor, seedThreads, timings);
+            } else {
+                // no seeding
+            }
+        } finally {
+            executor.shutdownNow();
+            seeding.end();
+        }
+        if (!"none".equals(seedType)) {
+            timings.report();
+        }
+        if (dataDir != null && getSnapshot() != null && Boolean.getBoolean("s-ramp-dev-server.snapshot.capture")) {
+            if (!"none".equals(seedType) || existingRepository) {
+                // An already populated repository is captured as it is
+                captureSnapshotAndExit();
+            } else if (restoredFromSnapshot) {
+                log.warn("Repository was restored from a snapshot - not capturing it again.");
+            } else {
+                log.warn("Nothing was seeded - no repository snapshot captured.");
+            }
+        }
+        phase.end();
+        StartupProfiler.getInstance().report();
 
-        System.out.println("----------  DONE  ---------------");
-        System.out.println("Now try:  \n  http://localhost:"+serverPort()+"/s-ramp-ui/index.html");
-        System.out.println("---------------------------------");
+        log.info("----------  DONE  ---------------");
+        log.info("Now try:  \n  http://localhost:"+serverPort()+"/s-ramp-ui/index.html");
+        log.info("---------------------------------");
+
+        // Optionally drive a load test against the running server
+        if (Boolean.getBoolean("s-ramp-dev-server.load-test")) {
+            new LoadGenerator("http://localhost:" + serverPort(), "loadtester", "loadtester").run();
+        }
     }
 
     /**
-     * @param client
-     * @throws SrampAtomException
-     * @throws SrampClientException
+     * Captures a snapshot of the freshly seeded (or already populated) repository.
+     * The content store and indexes can only be copied consistently once nothing
+     * can write to them, so the server is stopped and the repository shut down
+     * first - a capture run always ends by exiting.
+     * @throws Exception
      */
-    private void doStandardSeed(SrampAtomApiClient client) throws SrampClientException, SrampAtomException {
-        InputStream is = null;
+    private void captureSnapshotAndExit() throws Exception {
+        StartupProfiler.Phase capture = StartupProfiler.getInstance().begin("snapshot capture");
+        log.info("Stopping the server to capture a repository snapshot...");
+        handlers.getServer().stop();
+        JCRRepositoryFactory.destroy();
+        long start = System.currentTimeMillis();
+        getSnapshot().capture(dataDir);
+        capture.end();
+        log.info("Repository snapshot captured in " + (System.currentTimeMillis() - start) + "ms");
+        log.info("Restart with -Ds-ramp-dev-server.snapshot.restore=true to use it.");
+        System.exit(0);
+    }
 
-        // Ontology #1
-        try {
-            is = SrampDevServer.class.getResourceAsStream("colors.owl.xml");
-            client.uploadOntology(is);
-            System.out.println("Ontology 1 added");
-        } finally {
-            IOUtils.closeQuietly(is);
+    /**
+     * Seeds the repository with a handful of standard artifacts.  The two ontologies
+     * are uploaded first (concurrently) because the remaining artifacts are classified
+     * by them.  The remaining artifacts are independent of each other, so they are
+     * uploaded concurrently as well.
+     * @param target
+     * @param executor
+     * @param timings
+     * @throws Exception
+     */
+    private void doStandardSeed(final SeedTarget target, ExecutorService executor,
+            final SeedTimings timings) throws Exception {
+        uploadOntologies(target, executor, timings);
+
+        List<Future<?>> artifacts = new ArrayList<Future<?>>();
+        // PDF Document
+        artifacts.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                BaseArtifactType artifact = uploadArtifact(target, timings, ArtifactType.Document(), "sample.pdf");
+                artifact.setDescription("This is just a sample PDF file that is included in the dev server so that we have some content when we start up.");
+                artifact.setVersion("1.0");
+                updateArtifactMetaData(target, timings, artifact);
+                log.info("PDF added");
+                return null;
+            }
+        }));
+        // XML Document
+        artifacts.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                BaseArtifactType artifact = uploadArtifact(target, timings, ArtifactType.XmlDocument(), "order.xml");
+                artifact.getClassifiedBy().add("http://www.example.org/colors.owl#Blue");
+                SrampModelUtils.setCustomProperty(artifact, "foo", "bar");
+                SrampModelUtils.setCustomProperty(artifact, "angle", "obtuse");
+                updateArtifactMetaData(target, timings, artifact);
+                log.info("XML file added");
+                return null;
+            }
+        }));
+        // WSDL Document
+        artifacts.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                BaseArtifactType artifact = uploadArtifact(target, timings, ArtifactType.WsdlDocument(), "deriver.wsdl");
+                artifact.getClassifiedBy().add("http://www.example.org/colors.owl#Red");
+                artifact.getClassifiedBy().add("http://www.example.org/regional.owl#Asia");
+                updateArtifactMetaData(target, timings, artifact);
+                log.info("WSDL added");
+                return null;
+            }
+        }));
+        waitFor(artifacts);
+    }
+
+    /**
+     * Seeds the repository with a (potentially very large) number of generated artifacts.
+     * @param target
+     * @param executor
+     * @param seedThreads
+     * @param timings
+     * @throws Exception
+     */
+    private void doSyntheticSeed(SeedTarget target, ExecutorService executor, int seedThreads,
+            SeedTimings timings) throws Exception {
+        uploadOntologies(target, executor, timings);
+        new SyntheticSeeder().seed(target, executor, seedThreads, timings);
+    }
+
+    /**
+     * Uploads the sample ontologies (concurrently).
+     * @param target
+     * @param executor
+     * @param timings
+     * @throws Exception
+     */
+    private void uploadOntologies(final SeedTarget target, ExecutorService executor,
+            final SeedTimings timings) throws Exception {
+        List<Future<?>> ontologies = new ArrayList<Future<?>>();
+        ontologies.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                uploadOntology(target, timings, "colors.owl.xml");
+                log.info("Ontology 1 added");
+                return null;
+            }
+        }));
+        ontologies.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                uploadOntology(target, timings, "regional.owl.xml");
+                log.info("Ontology 2 added");
+                return null;
+            }
+        }));
+        waitFor(ontologies);
+    }
+
+    /**
+     * Seeds the repository with a few SwitchYard applications.  The applications are
+     * expanded into S-RAMP archives on worker threads, while the archives that are
+     * already expanded get uploaded (in their original order) on this thread.  With
+     * s-ramp-dev-server.switchyard.expansion=streaming the applications are instead
+     * streamed straight into the repository by a {@link StreamingSwitchYardExpander}.
+     * @param target
+     * @param executor
+     * @param seedThreads
+     * @param timings
+     * @throws Exception
+     */
+    private void doSwitchYardSeed(SeedTarget target, ExecutorService executor, int seedThreads,
+            final SeedTimings timings) throws Exception {
+        String[] apps = new String[] { "artifacts.jar", "order-consumer.jar", "order-service.jar" };
+        if ("streaming".equals(System.getProperty("s-ramp-dev-server.switchyard.expansion", "archive"))) {
+            StreamingSwitchYardExpander expander = new StreamingSwitchYardExpander(target, executor, seedThreads, timings);
+            for (String app : apps) {
+                InputStream is = SrampDevServer.class.getResourceAsStream(app);
+                try {
+                    expander.expand(is);
+                    log.info("Added SwitchYard app (" + app + ")");
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+            }
+            return;
         }
 
-        // Ontology #2
+        List<Future<ExpandedApp>> expansions = new ArrayList<Future<ExpandedApp>>();
+        for (final String app : apps) {
+            expansions.add(executor.submit(new Callable<ExpandedApp>() {
+                @Override
+                public ExpandedApp call() throws Exception {
+                    return expandSwitchYardApp(timings, app);
+                }
+            }));
+        }
+
+        int next = 0;
         try {
-            is = SrampDevServer.class.getResourceAsStream("regional.owl.xml");
-            client.uploadOntology(is);
-            System.out.println("Ontology 2 added");
+            while (next < apps.length) {
+                ExpandedApp expanded = getResult(expansions.get(next++));
+                try {
+                    long start = System.currentTimeMillis();
+                    target.uploadBatch(expanded.archive);
+                    timings.record("upload batch", start);
+                    log.info("Added SwitchYard app (" + expanded.name + ")");
+                } finally {
+                    expanded.close();
+                }
+            }
         } finally {
-            IOUtils.closeQuietly(is);
+            // Make sure any archives we did not get around to uploading are cleaned up
+            for (Future<ExpandedApp> expansion : expansions.subList(next, apps.length)) {
+                if (!expansion.cancel(true)) {
+                    try {
+                        expansion.get().close();
+                    } catch (Exception e) {
+                        // the expansion itself failed - nothing to clean up
+                    }
+                }
+            }
         }
+    }
 
-        // PDF Document
+    /**
+     * Expands the given SwitchYard application (a classpath resource) into an S-RAMP archive.
+     * @param timings
+     * @param resourceName
+     * @throws Exception
+     */
+    private ExpandedApp expandSwitchYardApp(SeedTimings timings, String resourceName) throws Exception {
+        long start = System.currentTimeMillis();
+        InputStream is = SrampDevServer.class.getResourceAsStream(resourceName);
+        SwitchYardAppToSrampArchive sy2archive = null;
+        SrampArchive archive = null;
         try {
-            is = SrampDevServer.class.getResourceAsStream("sample.pdf");
-            BaseArtifactType artifact = client.uploadArtifact(ArtifactType.Document(), is, "sample.pdf");
-            artifact.setDescription("This is just a sample PDF file that is included in the dev server so that we have some content when we start up.");
-            artifact.setVersion("1.0");
-            client.updateArtifactMetaData(artifact);
-            System.out.println("PDF added");
+            sy2archive = new SwitchYardAppToSrampArchive(is);
+            archive = sy2archive.createSrampArchive();
+            timings.record("expand archive", start);
+            return new ExpandedApp(resourceName, sy2archive, archive);
+        } catch (Exception e) {
+            ZipToSrampArchive.closeQuietly(sy2archive);
+            SrampArchive.closeQuietly(archive);
+            throw e;
         } finally {
             IOUtils.closeQuietly(is);
         }
+    }
 
-        // XML Document
+    /**
+     * Uploads an ontology (a classpath resource).
+     * @param target
+     * @param timings
+     * @param resourceName
+     * @throws Exception
+     */
+    private static void uploadOntology(SeedTarget target, SeedTimings timings, String resourceName)
+            throws Exception {
+        long start = System.currentTimeMillis();
+        InputStream is = SrampDevServer.class.getResourceAsStream(resourceName);
         try {
-            is = SrampDevServer.class.getResourceAsStream("order.xml");
-            BaseArtifactType artifact = client.uploadArtifact(ArtifactType.XmlDocument(), is, "order.xml");
-            artifact.getClassifiedBy().add("http://www.example.org/colors.owl#Blue");
-            SrampModelUtils.setCustomProperty(artifact, "foo", "bar");
-            SrampModelUtils.setCustomProperty(artifact, "angle", "obtuse");
-            client.updateArtifactMetaData(artifact);
-            System.out.println("XML file added");
+            target.uploadOntology(is);
+            timings.record("upload ontology", start);
         } finally {
             IOUtils.closeQuietly(is);
         }
+    }
 
-        // WSDL Document
+    /**
+     * Uploads an artifact (a classpath resource).
+     * @param target
+     * @param timings
+     * @param type
+     * @param resourceName
+     * @throws Exception
+     */
+    private static BaseArtifactType uploadArtifact(SeedTarget target, SeedTimings timings,
+            ArtifactType type, String resourceName) throws Exception {
+        long start = System.currentTimeMillis();
+        InputStream is = SrampDevServer.class.getResourceAsStream(resourceName);
         try {
-            is = SrampDevServer.class.getResourceAsStream("deriver.wsdl");
-            BaseArtifactType artifact = client.uploadArtifact(ArtifactType.WsdlDocument(), is, "deriver.wsdl");
-            artifact.getClassifiedBy().add("http://www.example.org/colors.owl#Red");
-            artifact.getClassifiedBy().add("http://www.example.org/regional.owl#Asia");
-            client.updateArtifactMetaData(artifact);
-            System.out.println("WSDL added");
+            BaseArtifactType artifact = target.uploadArtifact(type, is, resourceName);
+            timings.record("upload artifact", start);
+            return artifact;
         } finally {
             IOUtils.closeQuietly(is);
         }
     }
 
     /**
-     * @param client
+     * Updates the meta-data of an artifact.
+     * @param target
+     * @param timings
+     * @param artifact
+     * @throws Exception
      */
-    private void doSwitchYardSeed(SrampAtomApiClient client) throws Exception {
-        // Upload the artifacts jar
-        InputStream artifactsIS = this.getClass().getResourceAsStream("artifacts.jar");
-        SwitchYardAppToSrampArchive sy2archive = null;
-        SrampArchive archive = null;
-        try {
-            sy2archive = new SwitchYardAppToSrampArchive(artifactsIS);
-            archive = sy2archive.createSrampArchive();
-            client.uploadBatch(archive);
-            System.out.println("Added SwitchYard app (artifacts.jar)");
-        } finally {
-            IOUtils.closeQuietly(artifactsIS);
-            ZipToSrampArchive.closeQuietly(sy2archive);
-            SrampArchive.closeQuietly(archive);
+    private static void updateArtifactMetaData(SeedTarget target, SeedTimings timings,
+            BaseArtifactType artifact) throws Exception {
+        long start = System.currentTimeMillis();
+        target.updateArtifactMetaData(artifact);
+        timings.record("update meta-data", start);
+    }
+
+    /**
+     * Waits for all of the given tasks to complete.
+     * @param futures
+     * @throws Exception
+     */
+    private static void waitFor(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            getResult(future);
         }
+    }
 
-        // Upload the order consumer jar
-        InputStream orderConsumerIS = this.getClass().getResourceAsStream("order-consumer.jar");
-        sy2archive = null;
-        archive = null;
+    /**
+     * Gets the result of a task, unwrapping any failure it reported.
+     * @param future
+     * @throws Exception
+     */
+    private static <T> T getResult(Future<T> future) throws Exception {
         try {
-            sy2archive = new SwitchYardAppToSrampArchive(orderConsumerIS);
-            archive = sy2archive.createSrampArchive();
-            client.uploadBatch(archive);
-            System.out.println("Added SwitchYard app (order-consumer.jar)");
-        } finally {
-            IOUtils.closeQuietly(artifactsIS);
-            ZipToSrampArchive.closeQuietly(sy2archive);
-            SrampArchive.closeQuietly(archive);
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
+    }
 
-        // Upload the order service jar
-        InputStream orderServiceIS = this.getClass().getResourceAsStream("order-service.jar");
-        sy2archive = null;
-        archive = null;
-        try {
-            sy2archive = new SwitchYardAppToSrampArchive(orderServiceIS);
-            archive = sy2archive.createSrampArchive();
-            client.uploadBatch(archive);
-            System.out.println("Added SwitchYard app (order-service.jar)");
-        } finally {
-            IOUtils.closeQuietly(artifactsIS);
+    /**
+     * A SwitchYard application that has been expanded into an S-RAMP archive
+     * and is waiting to be uploaded.
+     */
+    private static class ExpandedApp {
+        private final String name;
+        private final SwitchYardAppToSrampArchive sy2archive;
+        private final SrampArchive archive;
+
+        /**
+         * Constructor.
+         * @param name
+         * @param sy2archive
+         * @param archive
+         */
+        public ExpandedApp(String name, SwitchYardAppToSrampArchive sy2archive, SrampArchive archive) {
+            this.name = name;
+            this.sy2archive = sy2archive;
+            this.archive = archive;
+        }
+
+        /**
+         * Cleans up the expanded application.
+         */
+        public void close() {
             ZipToSrampArchive.closeQuietly(sy2archive);
             SrampArchive.closeQuietly(archive);
         }
-
     }
 
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Begins or ends a {@link StartupProfiler} phase when a context is initialized.
+ * Context listeners are called in the order they were added, so a pair of these
+ * listeners added around another listener times that listener's initialization
+ * (e.g. Weld's bean scanning).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class StartupPhaseListener implements ServletContextListener {
+
+    private final String phase;
+    private final boolean begin;
+
+    /**
+     * Constructor.
+     * @param phase
+     * @param begin true to begin the phase, false to end it
+     */
+    public StartupPhaseListener(String phase, boolean begin) {
+        this.phase = phase;
+        this.begin = begin;
+    }
+
+    /**
+     * @see javax.servlet.ServletContextListener#contextInitialized(javax.servlet.ServletContextEvent)
+     */
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        if (begin) {
+            StartupProfiler.getInstance().begin(phase);
+        } else {
+            StartupProfiler.getInstance().end(phase);
+        }
+    }
+
+    /**
+     * @see javax.servlet.ServletContextListener#contextDestroyed(javax.servlet.ServletContextEvent)
+     */
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times the phases of the dev server's startup (configuration, module discovery,
+ * context/Weld/Errai initialization, seeding...), so that it's clear which part
+ * of a slow startup is worth optimizing.  Phases can be nested; each one is also
+ * recorded as a JFR "Startup Phase" event (see {@link FlightRecorderEvents}), and
+ * a summary of all of them is logged once the server is ready.
+ * <p>
+ * Phases are usually begun and ended by the same code ({@link #begin(String)} and
+ * {@link Phase#end()}), but can also be ended by name from elsewhere (e.g. by a
+ * listener that runs after the work being timed - see {@link #end(String)}).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class StartupProfiler {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupProfiler.class);
+
+    private static final StartupProfiler instance = new StartupProfiler();
+
+    /**
+     * @return the startup profiler
+     */
+    public static StartupProfiler getInstance() {
+        return instance;
+    }
+
+    private final List<Phase> phases = new ArrayList<Phase>();
+    private final List<Phase> open = new ArrayList<Phase>();
+    private final Map<String, Phase> openByName = new HashMap<String, Phase>();
+
+    /**
+     * Constructor.
+     */
+    public StartupProfiler() {
+    }
+
+    /**
+     * Begins a phase.
+     * @param name
+     * @return the phase (to be ended when it's done)
+     */
+    public Phase begin(String name) {
+        return begin(name, null);
+    }
+
+    /**
+     * Begins a phase.
+     * @param name
+     * @param detail extra information about the phase (may be null)
+     * @return the phase (to be ended when it's done)
+     */
+    public synchronized Phase begin(String name, String detail) {
+        // Nested in every phase that is still open (phases aren't always ended in order)
+        Phase phase = new Phase(name, detail, open.size());
+        phases.add(phase);
+        open.add(phase);
+        openByName.put(name, phase);
+        return phase;
+    }
+
+    /**
+     * Ends the (most recently begun) phase with the given name, if it's still open.
+     * @param name
+     */
+    public void end(String name) {
+        Phase phase;
+        synchronized (this) {
+            phase = openByName.get(name);
+        }
+        if (phase != null) {
+            phase.end();
+        }
+    }
+
+    /**
+     * Called when a phase ends.
+     * @param phase
+     */
+    private synchronized void ended(Phase phase) {
+        open.remove(phase);
+        if (openByName.get(phase.name) == phase) {
+            openByName.remove(phase.name);
+        }
+    }
+
+    /**
+     * Logs a summary of the phases so far.
+     */
+    public void report() {
+        List<Phase> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<Phase>(phases);
+        }
+        log.info("----------  Startup Phases  ---------------");
+        for (Phase phase : snapshot) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < phase.depth; i++) {
+                name.append("  ");
+            }
+            name.append(phase.name);
+            String elapsed = phase.isEnded() ? String.format("%8dms", phase.getElapsedMillis()) : "   (open)";
+            log.info(String.format("  %-45s %s%s", name, elapsed, phase.detail == null ? "" : "  " + phase.detail));
+        }
+        log.info(String.format("  %-45s %8dms", "JVM start to ready", ManagementFactory.getRuntimeMXBean().getUptime()));
+    }
+
+    /**
+     * A timed phase of startup.
+     */
+    public class Phase {
+        private final String name;
+        private String detail;
+        private final int depth;
+        private final long start = System.nanoTime();
+        private final FlightRecorderEvents.Event event = FlightRecorderEvents.STARTUP_PHASE.begin();
+        private volatile long elapsed = -1;
+
+        /**
+         * Constructor.
+         * @param name
+         * @param detail
+         * @param depth
+         */
+        private Phase(String name, String detail, int depth) {
+            this.name = name;
+            this.detail = detail;
+            this.depth = depth;
+        }
+
+        /**
+         * @param detail extra information about the phase, once it's known
+         */
+        public void setDetail(String detail) {
+            this.detail = detail;
+        }
+
+        /**
+         * Ends the phase (ending it again has no effect).
+         */
+        public void end() {
+            synchronized (this) {
+                if (elapsed != -1) {
+                    return;
+                }
+                elapsed = System.nanoTime() - start;
+            }
+            event.commit(name, detail, depth);
+            ended(this);
+        }
+
+        /**
+         * @return true if the phase has ended
+         */
+        public boolean isEnded() {
+            return elapsed != -1;
+        }
+
+        /**
+         * @return how long the phase took
+         */
+        public long getElapsedMillis() {
+            return elapsed / 1000000L;
+        }
+    }
+
+}
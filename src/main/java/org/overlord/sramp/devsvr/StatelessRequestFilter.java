@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Used in contexts that have no session manager.  Asking such a context for an
+ * existing session (getSession(false)) returns null.  Asking it to create one is
+ * counted, so that anything still relying on sessions shows up in the metrics,
+ * and then fails with an IllegalStateException - callers of getSession() expect
+ * a session, so silently returning null would only move the failure elsewhere.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class StatelessRequestFilter implements Filter {
+
+    private final SessionMetricsListener sessionMetrics;
+
+    /**
+     * Constructor.
+     * @param sessionMetrics
+     */
+    public StatelessRequestFilter(SessionMetricsListener sessionMetrics) {
+        this.sessionMetrics = sessionMetrics;
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        chain.doFilter(new HttpServletRequestWrapper((HttpServletRequest) request) {
+            @Override
+            public HttpSession getSession() {
+                return getSession(true);
+            }
+            @Override
+            public HttpSession getSession(boolean create) {
+                if (create) {
+                    sessionMetrics.sessionRefused();
+                    throw new IllegalStateException("sessions are disabled in stateless mode");
+                }
+                return null;
+            }
+        }, response);
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+    }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase.SizeLimitExceededException;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.io.IOUtils;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.DocumentArtifactType;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.repository.PersistenceFactory;
+
+/**
+ * A replacement for the s-ramp-ui's artifact upload servlet that streams the
+ * uploaded file straight into the repository instead of staging it first.  The
+ * multipart request is parsed with the commons-fileupload streaming API and the
+ * file part is passed through a single buffer from the shared {@link BufferPool},
+ * being hashed (SHA-1) and sniffed for its type on the way.
+ * <p>
+ * The artifact type is taken from the "artifactType" form field, otherwise it is
+ * detected from the file's leading bytes.  All of the form fields are read before
+ * the type is picked: when the file part comes first it is spooled to a temporary
+ * file until the rest of the form has been read, and only streamed directly when
+ * the artifact type is already known.  The response has the same form as the UI's
+ * servlet (a JSON map in a text/html response).  JCR credentials must already have
+ * been established (by the ServletCredentialsFilter).
+ * <p>
+ * Unlike the UI's servlet, archives are stored as a single artifact - they are
+ * not expanded (e.g. via an S-RAMP package's .sramp metadata) into the artifacts
+ * they contain.  This is why the servlet is only used with
+ * -Ds-ramp-dev-server.upload.mode=streaming.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class StreamingArtifactUploadServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1735128373610549373L;
+
+    private static final int SNIFF_SIZE = 1024;
+
+    private long maxSize;
+
+    /**
+     * Constructor.
+     */
+    public StreamingArtifactUploadServlet() {
+    }
+
+    /**
+     * @see javax.servlet.GenericServlet#init()
+     */
+    @Override
+    public void init() throws ServletException {
+        maxSize = Long.getLong("s-ramp-dev-server.upload.max-size", -1L);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (!ServletFileUpload.isMultipartContent(req)) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Request is not multipart/form-data.");
+            return;
+        }
+        if (maxSize >= 0 && req.getContentLength() > maxSize) {
+            writeError(resp, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    new UploadInputStream.UploadTooLargeException(maxSize));
+            return;
+        }
+
+        ServletFileUpload upload = new ServletFileUpload();
+        upload.setSizeMax(maxSize);
+        String artifactType = null;
+        boolean uploaded = false;
+        String fileName = null;
+        File spooled = null;
+        Map<String, String> results = null;
+        try {
+            FileItemIterator iter = upload.getItemIterator(req);
+            while (iter.hasNext()) {
+                FileItemStream item = iter.next();
+                InputStream stream = item.openStream();
+                if (item.isFormField()) {
+                    if ("artifactType".equals(item.getFieldName())) {
+                        artifactType = Streams.asString(stream, "UTF-8");
+                    }
+                    stream.close();
+                } else if (uploaded) {
+                    stream.close();
+                } else if (artifactType != null) {
+                    // The type is already known - stream the file straight in
+                    uploaded = true;
+                    results = upload(item.getName(), artifactType, stream);
+                } else {
+                    // Hold on to the file until the rest of the form has been read
+                    uploaded = true;
+                    fileName = item.getName();
+                    spooled = spool(stream);
+                }
+            }
+            if (spooled != null) {
+                results = upload(fileName, artifactType, new FileInputStream(spooled));
+            }
+            if (uploaded && results == null) {
+                resp.setHeader("Retry-After", "5");
+                writeError(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        new Exception("Too many uploads in progress."));
+                return;
+            }
+        } catch (SizeLimitExceededException e) {
+            writeError(resp, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e);
+            return;
+        } catch (UploadInputStream.UploadTooLargeException e) {
+            writeError(resp, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e);
+            return;
+        } catch (FileUploadException e) {
+            writeError(resp, HttpServletResponse.SC_BAD_REQUEST, e);
+            return;
+        } catch (Exception e) {
+            writeError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+            return;
+        } finally {
+            if (spooled != null) {
+                spooled.delete();
+            }
+        }
+
+        if (results == null) {
+            writeError(resp, HttpServletResponse.SC_BAD_REQUEST, new Exception("No file was uploaded."));
+        } else {
+            writeToResponse(resp, HttpServletResponse.SC_OK, results);
+        }
+    }
+
+    /**
+     * Copies an uploaded file to a temporary file.
+     * @param content
+     * @return the temporary file
+     * @throws IOException
+     */
+    private static File spool(InputStream content) throws IOException {
+        File file = File.createTempFile("sramp-upload", ".tmp");
+        OutputStream out = null;
+        boolean spooled = false;
+        try {
+            out = new FileOutputStream(file);
+            IOUtils.copy(content, out);
+            spooled = true;
+        } finally {
+            IOUtils.closeQuietly(out);
+            content.close();
+            if (!spooled) {
+                file.delete();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Streams a single uploaded file into the repository.
+     * @param fileName
+     * @param artifactType the requested artifact type (may be null)
+     * @param content
+     * @return the results to send back to the client, or null if no buffer was available
+     * @throws Exception
+     */
+    private Map<String, String> upload(String fileName, String artifactType, InputStream content) throws Exception {
+        BufferPool pool = BufferPool.getInstance();
+        byte[] buffer = pool.acquire();
+        if (buffer == null) {
+            content.close();
+            return null;
+        }
+        UploadInputStream uploadStream = new UploadInputStream(content, pool, buffer, maxSize,
+                MessageDigest.getInstance("SHA-1"));
+        try {
+            String name = fileName;
+            if (name != null) {
+                // Some browsers send the full client-side path
+                name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+            }
+            byte[] head = uploadStream.peek(SNIFF_SIZE);
+            String contentType = detectContentType(head, name);
+            ArtifactType type = null;
+            if (artifactType != null && artifactType.trim().length() > 0) {
+                type = ArtifactContentFilter.toArtifactType(artifactType.trim());
+            }
+            if (type == null) {
+                type = detectArtifactType(head, contentType);
+            }
+
+            BaseArtifactType artifact = type.newArtifactInstance();
+            artifact.setUuid(UUID.randomUUID().toString());
+            artifact.setName(name);
+            if (artifact instanceof DocumentArtifactType) {
+                ((DocumentArtifactType) artifact).setContentType(contentType);
+            }
+            artifact = PersistenceFactory.newInstance().persistArtifact(artifact, uploadStream);
+            QueryCache.getInstance().invalidate(type.getModel(), type.getType());
+
+            Map<String, String> results = new LinkedHashMap<String, String>();
+            results.put("model", type.getModel());
+            results.put("type", type.getType());
+            results.put("uuid", artifact.getUuid());
+            results.put("size", String.valueOf(uploadStream.getCount()));
+            results.put("sha1", uploadStream.getHash());
+            return results;
+        } finally {
+            uploadStream.close();
+        }
+    }
+
+    /**
+     * Detects the content type of an upload from its leading bytes (falling back
+     * to its name).
+     * @param head
+     * @param name
+     */
+    static String detectContentType(byte[] head, String name) {
+        String lname = name == null ? "" : name.toLowerCase();
+        if (startsWith(head, 'P', 'K', 3, 4)) {
+            return lname.endsWith(".jar") ? "application/java-archive" : "application/zip";
+        } else if (startsWith(head, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        } else if (rootElement(head) != null) {
+            return "application/xml";
+        } else if (lname.endsWith(".txt")) {
+            return "text/plain";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Detects the S-RAMP artifact type of an upload from its leading bytes.
+     * @param head
+     * @param contentType
+     */
+    static ArtifactType detectArtifactType(byte[] head, String contentType) {
+        if (!"application/xml".equals(contentType)) {
+            return ArtifactType.Document();
+        }
+        String root = rootElement(head);
+        if ("definitions".equals(root)) {
+            return ArtifactType.WsdlDocument();
+        } else if ("schema".equals(root)) {
+            return ArtifactType.XsdDocument();
+        } else if ("Policy".equals(root)) {
+            return ArtifactType.PolicyDocument();
+        }
+        return ArtifactType.XmlDocument();
+    }
+
+    /**
+     * Finds the (local) name of the root element, if the content looks like XML.
+     * @param head
+     */
+    private static String rootElement(byte[] head) {
+        String text;
+        try {
+            text = new String(head, "UTF-8");
+        } catch (IOException e) {
+            return null;
+        }
+        int idx = 0;
+        if (text.startsWith("\uFEFF")) {
+            idx = 1;
+        }
+        while (idx < text.length() && Character.isWhitespace(text.charAt(idx))) {
+            idx++;
+        }
+        if (idx >= text.length() || text.charAt(idx) != '<') {
+            return null;
+        }
+        // Skip the prolog (declaration, comments, processing instructions, doctype)
+        while (idx != -1 && idx + 1 < text.length()) {
+            char next = text.charAt(idx + 1);
+            if (next != '?' && next != '!') {
+                int end = idx + 1;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end))
+                        && text.charAt(end) != '>' && text.charAt(end) != '/') {
+                    end++;
+                }
+                String qname = text.substring(idx + 1, end);
+                return qname.substring(qname.indexOf(':') + 1);
+            }
+            idx = text.indexOf('<', idx + 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param data
+     * @param prefix
+     * @return true if the data starts with the given bytes
+     */
+    private static boolean startsWith(byte[] data, int... prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != (byte) prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes an error to the response.
+     * @param resp
+     * @param status
+     * @param error
+     * @throws IOException
+     */
+    private static void writeError(HttpServletResponse resp, int status, Exception error) throws IOException {
+        Map<String, String> results = new LinkedHashMap<String, String>();
+        results.put("exception", "true");
+        results.put("exception-message", error.getMessage());
+        writeToResponse(resp, status, results);
+    }
+
+    /**
+     * Writes the results to the response as a JSON map.
+     * @param resp
+     * @param status
+     * @param results
+     * @throws IOException
+     */
+    private static void writeToResponse(HttpServletResponse resp, int status, Map<String, String> results)
+            throws IOException {
+        resp.setStatus(status);
+        resp.setContentType("text/html");
+        resp.setCharacterEncoding("UTF-8");
+        StringBuilder json = new StringBuilder("{");
+        boolean first = true;
+        for (Entry<String, String> entry : results.entrySet()) {
+            if (!first) {
+                json.append(",");
+            }
+            first = false;
+            json.append("\"").append(escape(entry.getKey())).append("\":\"").append(escape(entry.getValue())).append("\"");
+        }
+        json.append("}");
+        PrintWriter writer = resp.getWriter();
+        writer.print(json);
+        writer.flush();
+    }
+
+    /**
+     * @param value
+     * @return the value escaped for inclusion in a JSON string
+     */
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20 || c == '<' || c == '>') {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+}
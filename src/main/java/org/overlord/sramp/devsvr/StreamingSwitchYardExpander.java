@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.common.SrampModelUtils;
+
+/**
+ * Expands a SwitchYard application into the repository without staging it on
+ * disk.  The jar is read exactly once, and the same entries the S-RAMP archive
+ * based expansion picks (schemas, WSDLs, policies, Java classes, the
+ * switchyard.xml descriptor and other XML files, but not beans.xml, forge.xml,
+ * faces-config.xml or the Maven metadata) are added as the jar streams past.  As
+ * with the archive based expansion, the jar itself is not added.
+ * <p>
+ * Entries that don't depend on anything (XSDs, policies and classes) are submitted
+ * for upload as soon as they are read.  Reading ahead is bounded: at most one such
+ * entry per upload thread is held in memory (being uploaded or waiting for a
+ * thread), and the jar isn't read any further until one of them has been added.
+ * The rest must wait for the entries they refer to, so all of the WSDLs and XML
+ * files of the jar are held in memory until their tier is uploaded: WSDLs once all
+ * of the XSDs have been added, then switchyard.xml and the other XML files once
+ * the WSDLs have been.  Each tier is uploaded (and so parsed by the repository) in
+ * parallel.  Each entry is tagged with its path within the jar.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class StreamingSwitchYardExpander {
+
+    private final SeedTarget target;
+    private final ExecutorService executor;
+    private final SeedTimings timings;
+    private final Semaphore readAhead;
+
+    /**
+     * Constructor.
+     * @param target
+     * @param executor
+     * @param threads the number of threads of the executor
+     * @param timings
+     */
+    public StreamingSwitchYardExpander(SeedTarget target, ExecutorService executor, int threads,
+            SeedTimings timings) {
+        this.target = target;
+        this.executor = executor;
+        this.timings = timings;
+        this.readAhead = new Semaphore(threads);
+    }
+
+    /**
+     * Expands the given SwitchYard application into the repository.  Must not be
+     * called from one of the executor's own threads.
+     * @param jar
+     * @throws Exception
+     */
+    public void expand(InputStream jar) throws Exception {
+        List<Future<Void>> independent = new ArrayList<Future<Void>>();
+        List<Entry> wsdls = new ArrayList<Entry>();
+        List<Entry> descriptors = new ArrayList<Entry>();
+        ZipInputStream zip = new ZipInputStream(jar);
+        ZipEntry zipEntry;
+        while ((zipEntry = zip.getNextEntry()) != null) {
+            if (zipEntry.isDirectory()) {
+                continue;
+            }
+            String path = zipEntry.getName();
+            ArtifactType type = toArtifactType(path);
+            if (type == null) {
+                continue;
+            }
+            String lpath = path.toLowerCase();
+            boolean deferred = lpath.endsWith(".wsdl") || lpath.endsWith(".xml");
+            if (!deferred) {
+                // Released once the entry has been uploaded
+                readAhead.acquire();
+            }
+            long start = System.currentTimeMillis();
+            Entry entry = new Entry(path, type, IOUtils.toByteArray(zip));
+            timings.record("expand archive", start);
+            if (lpath.endsWith(".wsdl")) {
+                wsdls.add(entry);
+            } else if (deferred) {
+                descriptors.add(entry);
+            } else {
+                independent.add(upload(entry, true));
+            }
+        }
+        waitFor(independent);
+        waitFor(uploadAll(wsdls));
+        waitFor(uploadAll(descriptors));
+    }
+
+    /**
+     * Decides whether (and as what) an entry of the jar is added to the repository.
+     * @param path
+     * @return the entry's artifact type, or null if it is skipped
+     */
+    private static ArtifactType toArtifactType(String path) {
+        String lpath = path.toLowerCase();
+        String name = lpath.substring(lpath.lastIndexOf('/') + 1);
+        if (lpath.startsWith("meta-inf/maven/") || name.equals("beans.xml") || name.equals("forge.xml")
+                || name.equals("faces-config.xml")) {
+            return null;
+        } else if (name.equals("switchyard.xml")) {
+            return ArtifactType.ExtendedDocument("SwitchYardXmlDocument");
+        } else if (name.endsWith(".xsd")) {
+            return ArtifactType.XsdDocument();
+        } else if (name.endsWith(".wsdl")) {
+            return ArtifactType.WsdlDocument();
+        } else if (name.endsWith(".wspolicy")) {
+            return ArtifactType.PolicyDocument();
+        } else if (name.endsWith(".class")) {
+            return ArtifactType.ExtendedDocument("JavaClass");
+        } else if (name.endsWith(".xml")) {
+            return ArtifactType.XmlDocument();
+        }
+        return null;
+    }
+
+    /**
+     * Uploads a tier of entries in parallel.
+     * @param entries
+     * @return the uploads
+     */
+    private List<Future<Void>> uploadAll(List<Entry> entries) {
+        List<Future<Void>> uploads = new ArrayList<Future<Void>>(entries.size());
+        for (Entry entry : entries) {
+            uploads.add(upload(entry, false));
+        }
+        entries.clear();
+        return uploads;
+    }
+
+    /**
+     * Submits the upload of a single entry.
+     * @param entry
+     * @param release whether the entry holds a read-ahead permit, to be released once it is uploaded
+     * @return the upload
+     */
+    private Future<Void> upload(final Entry entry, final boolean release) {
+        try {
+            return executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        long start = System.currentTimeMillis();
+                        BaseArtifactType artifact = target.uploadArtifact(entry.type,
+                                new ByteArrayInputStream(entry.content), entry.name());
+                        timings.record("upload artifact", start);
+
+                        start = System.currentTimeMillis();
+                        SrampModelUtils.setCustomProperty(artifact, "expanded.from.archive.path", entry.path);
+                        target.updateArtifactMetaData(artifact);
+                        timings.record("update meta-data", start);
+                        return null;
+                    } finally {
+                        if (release) {
+                            readAhead.release();
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            if (release) {
+                readAhead.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for all of the given uploads to finish, unwrapping any failure.
+     * @param uploads
+     * @throws Exception
+     */
+    private static void waitFor(List<Future<Void>> uploads) throws Exception {
+        for (Future<Void> upload : uploads) {
+            try {
+                upload.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * An entry captured from the jar.
+     */
+    private static class Entry {
+        private final String path;
+        private final ArtifactType type;
+        private final byte[] content;
+
+        /**
+         * Constructor.
+         * @param path
+         * @param type
+         * @param content
+         */
+        public Entry(String path, ArtifactType type, byte[] content) {
+            this.path = path;
+            this.type = type;
+            this.content = content;
+        }
+
+        /**
+         * @return the entry's file name
+         */
+        public String name() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.oasis_open.docs.s_ramp.ns.s_ramp_v1.BaseArtifactType;
+import org.overlord.sramp.atom.archive.SrampArchive;
+import org.overlord.sramp.common.ArtifactType;
+import org.overlord.sramp.common.SrampModelUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Seeds the repository with a configurable number of generated artifacts.  Useful
+ * for reproducing production sized repositories locally.  The artifacts are
+ * generated into S-RAMP archives of a fixed size, and only a bounded number of
+ * archives exist at any one time, so memory use does not grow with the number of
+ * artifacts requested.
+ * <p>
+ * The generator is driven by the following system properties:
+ * <ul>
+ *   <li>s-ramp-dev-server.synthetic.count - total number of artifacts (default 10000)</li>
+ *   <li>s-ramp-dev-server.synthetic.batch-size - artifacts per archive (default 500)</li>
+ *   <li>s-ramp-dev-server.synthetic.random-seed - seed for the generator (default 42)</li>
+ *   <li>s-ramp-dev-server.synthetic.mix - relative weights of the generated types
+ *       (default "document:40,xml:30,wsdl:20,switchyard:10")</li>
+ *   <li>s-ramp-dev-server.synthetic.properties - custom properties per artifact (default 3)</li>
+ *   <li>s-ramp-dev-server.synthetic.relationships - relationships per artifact (default 2)</li>
+ * </ul>
+ * Two runs with the same settings produce the same artifacts (including UUIDs).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class SyntheticSeeder {
+
+    private static final Logger log = LoggerFactory.getLogger(SyntheticSeeder.class);
+
+    private static final String[] CLASSIFIERS = new String[] {
+        "http://www.example.org/colors.owl#Primary",
+        "http://www.example.org/colors.owl#Red",
+        "http://www.example.org/colors.owl#Green",
+        "http://www.example.org/colors.owl#Blue",
+        "http://www.example.org/regional.owl#World",
+        "http://www.example.org/regional.owl#Asia",
+        "http://www.example.org/regional.owl#Europe",
+        "http://www.example.org/regional.owl#Japan",
+        "http://www.example.org/regional.owl#China",
+        "http://www.example.org/regional.owl#UnitedKingdom",
+        "http://www.example.org/regional.owl#Germany"
+    };
+    private static final String[] WORDS = new String[] {
+        "order", "inventory", "customer", "invoice", "shipping", "payment", "account",
+        "catalog", "pricing", "billing", "audit", "report", "partner", "claim"
+    };
+    private static final String[] TYPES = new String[] { "document", "xml", "wsdl", "switchyard" };
+
+    private final int count;
+    private final int batchSize;
+    private final long randomSeed;
+    private final int[] mix;
+    private final int mixTotal;
+    private final int propertiesPerArtifact;
+    private final int relationshipsPerArtifact;
+
+    /**
+     * Constructor - reads the generator settings from system properties.
+     */
+    public SyntheticSeeder() {
+        count = Integer.getInteger("s-ramp-dev-server.synthetic.count", 10000);
+        batchSize = Math.max(1, Integer.getInteger("s-ramp-dev-server.synthetic.batch-size", 500));
+        randomSeed = Long.getLong("s-ramp-dev-server.synthetic.random-seed", 42L);
+        mix = parseMix(System.getProperty("s-ramp-dev-server.synthetic.mix", "document:40,xml:30,wsdl:20,switchyard:10"));
+        int total = 0;
+        for (int weight : mix) {
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Invalid synthetic seed mix - at least one type must have a positive weight.");
+        }
+        mixTotal = total;
+        propertiesPerArtifact = Integer.getInteger("s-ramp-dev-server.synthetic.properties", 3);
+        relationshipsPerArtifact = Integer.getInteger("s-ramp-dev-server.synthetic.relationships", 2);
+    }
+
+    /**
+     * Generates all of the synthetic artifacts and uploads them in batches.  While
+     * one batch is being uploaded the next one is generated.  The ontologies used
+     * to classify the artifacts must already be in the repository.
+     * @param target
+     * @param executor
+     * @param maxInFlight the maximum number of batches being uploaded at once
+     * @param timings
+     * @throws Exception
+     */
+    public void seed(final SeedTarget target, ExecutorService executor, int maxInFlight,
+            final SeedTimings timings) throws Exception {
+        Random random = new Random(randomSeed);
+        LinkedList<Future<Void>> inFlight = new LinkedList<Future<Void>>();
+        int batch = 0;
+        try {
+            for (int batchStart = 0; batchStart < count; batchStart += batchSize, batch++) {
+                // Relationships may only target artifacts from batches that are known to be
+                // uploaded by the time this batch is, which keeps the output deterministic.
+                int uploaded = Math.max(0, batch - maxInFlight + 1) * batchSize;
+                while (inFlight.size() >= maxInFlight) {
+                    waitFor(inFlight.removeFirst());
+                }
+
+                long start = System.currentTimeMillis();
+                final SrampArchive archive = new SrampArchive();
+                try {
+                    int batchEnd = Math.min(count, batchStart + batchSize);
+                    for (int idx = batchStart; idx < batchEnd; idx++) {
+                        addArtifact(archive, random, idx, uploaded);
+                    }
+                } catch (Exception e) {
+                    SrampArchive.closeQuietly(archive);
+                    throw e;
+                }
+                timings.record("generate batch", start);
+
+                final int batchNumber = batch;
+                inFlight.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long start = System.currentTimeMillis();
+                        try {
+                            target.uploadBatch(archive);
+                            timings.record("upload batch", start);
+                        } finally {
+                            SrampArchive.closeQuietly(archive);
+                        }
+                        log.info("Synthetic batch " + batchNumber + " added");
+                        return null;
+                    }
+                }));
+            }
+            while (!inFlight.isEmpty()) {
+                waitFor(inFlight.removeFirst());
+            }
+        } finally {
+            for (Future<Void> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        log.info("Added " + count + " synthetic artifacts");
+    }
+
+    /**
+     * Generates a single artifact and adds it to the archive.
+     * @param archive
+     * @param random
+     * @param idx the index of the artifact being generated
+     * @param uploaded the number of artifacts known to be in the repository already
+     * @throws Exception
+     */
+    private void addArtifact(SrampArchive archive, Random random, int idx, int uploaded) throws Exception {
+        String type = pickType(random);
+        String word = WORDS[random.nextInt(WORDS.length)];
+        String name;
+        ArtifactType artifactType;
+        String content;
+        if ("xml".equals(type)) {
+            name = word + "-" + idx + ".xml";
+            artifactType = ArtifactType.XmlDocument();
+            content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<" + word + " id=\"" + idx + "\">\n  <value>"
+                    + random.nextLong() + "</value>\n</" + word + ">\n";
+        } else if ("wsdl".equals(type)) {
+            name = word + "-" + idx + ".wsdl";
+            artifactType = ArtifactType.WsdlDocument();
+            content = generateWsdl(word, idx);
+        } else if ("switchyard".equals(type)) {
+            name = "switchyard-" + idx + ".xml";
+            artifactType = ArtifactType.ExtendedDocument("SwitchYardXmlDocument");
+            content = generateSwitchYardXml(word, idx);
+        } else {
+            name = word + "-" + idx + ".txt";
+            artifactType = ArtifactType.Document();
+            content = "Synthetic " + word + " document #" + idx + " (" + random.nextLong() + ")\n";
+        }
+
+        BaseArtifactType artifact = artifactType.newArtifactInstance();
+        artifact.setUuid(uuid(idx));
+        artifact.setName(name);
+        artifact.setVersion("1.0");
+        artifact.setDescription("Synthetic " + word + " artifact generated by the dev server.");
+        int numClassifiers = random.nextInt(3);
+        for (int i = 0; i < numClassifiers; i++) {
+            String classifier = CLASSIFIERS[random.nextInt(CLASSIFIERS.length)];
+            if (!artifact.getClassifiedBy().contains(classifier)) {
+                artifact.getClassifiedBy().add(classifier);
+            }
+        }
+        for (int i = 0; i < propertiesPerArtifact; i++) {
+            SrampModelUtils.setCustomProperty(artifact, "synthetic-prop-" + i, WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (uploaded > 0) {
+            for (int i = 0; i < relationshipsPerArtifact; i++) {
+                SrampModelUtils.addGenericRelationship(artifact, "syntheticRelatedTo", uuid(random.nextInt(uploaded)));
+            }
+        }
+
+        archive.addEntry("synthetic/" + idx + "/" + name, artifact, toStream(content));
+    }
+
+    /**
+     * Picks one of the artifact types, according to the configured mix.
+     * @param random
+     */
+    private String pickType(Random random) {
+        int r = random.nextInt(mixTotal);
+        for (int i = 0; i < mix.length; i++) {
+            r -= mix[i];
+            if (r < 0) {
+                return TYPES[i];
+            }
+        }
+        return TYPES[0];
+    }
+
+    /**
+     * Returns the (deterministic) UUID of the artifact with the given index.
+     * @param idx
+     */
+    private String uuid(int idx) {
+        try {
+            return UUID.nameUUIDFromBytes((randomSeed + ":" + idx).getBytes("UTF-8")).toString();
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Generates a small WSDL with a unique target namespace.
+     * @param word
+     * @param idx
+     */
+    private static String generateWsdl(String word, int idx) {
+        String tns = "urn:synthetic:" + word + ":" + idx;
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<wsdl:definitions xmlns:wsdl=\"http://schemas.xmlsoap.org/wsdl/\"\n"
+                + "    xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns:tns=\"" + tns + "\"\n"
+                + "    name=\"" + word + idx + "\" targetNamespace=\"" + tns + "\">\n"
+                + "  <wsdl:message name=\"" + word + "Request\">\n"
+                + "    <wsdl:part name=\"in\" type=\"xsd:string\"/>\n"
+                + "  </wsdl:message>\n"
+                + "  <wsdl:message name=\"" + word + "Response\">\n"
+                + "    <wsdl:part name=\"out\" type=\"xsd:string\"/>\n"
+                + "  </wsdl:message>\n"
+                + "  <wsdl:portType name=\"" + word + "PortType\">\n"
+                + "    <wsdl:operation name=\"" + word + "\">\n"
+                + "      <wsdl:input message=\"tns:" + word + "Request\"/>\n"
+                + "      <wsdl:output message=\"tns:" + word + "Response\"/>\n"
+                + "    </wsdl:operation>\n"
+                + "  </wsdl:portType>\n"
+                + "</wsdl:definitions>\n";
+    }
+
+    /**
+     * Generates a small switchyard.xml describing a single component service.
+     * @param word
+     * @param idx
+     */
+    private static String generateSwitchYardXml(String word, int idx) {
+        String name = word + "-app-" + idx;
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<switchyard xmlns=\"urn:switchyard-config:switchyard:1.0\" name=\"" + name + "\"\n"
+                + "    targetNamespace=\"urn:synthetic:" + name + "\">\n"
+                + "  <composite xmlns=\"http://docs.oasis-open.org/ns/opencsa/sca/200912\" name=\"" + name + "\"\n"
+                + "      targetNamespace=\"urn:synthetic:" + name + "\">\n"
+                + "    <component name=\"" + word + "Bean\">\n"
+                + "      <service name=\"" + word + "Service\"/>\n"
+                + "    </component>\n"
+                + "  </composite>\n"
+                + "</switchyard>\n";
+    }
+
+    /**
+     * Converts generated content to a stream.
+     * @param content
+     */
+    private static ByteArrayInputStream toStream(String content) throws UnsupportedEncodingException {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    /**
+     * Parses the type mix setting, e.g. "document:40,xml:30,wsdl:20,switchyard:10".
+     * Types that are not mentioned get a weight of zero.
+     * @param setting
+     */
+    private static int[] parseMix(String setting) {
+        int[] weights = new int[TYPES.length];
+        for (String item : setting.split(",")) {
+            String[] split = item.trim().split(":");
+            if (split.length != 2) {
+                throw new IllegalArgumentException("Invalid synthetic seed mix entry: " + item);
+            }
+            int idx = -1;
+            for (int i = 0; i < TYPES.length; i++) {
+                if (TYPES[i].equals(split[0].trim())) {
+                    idx = i;
+                }
+            }
+            if (idx == -1) {
+                throw new IllegalArgumentException("Unknown synthetic artifact type: " + split[0]);
+            }
+            weights[idx] = Integer.parseInt(split[1].trim());
+        }
+        return weights;
+    }
+
+    /**
+     * Waits for an upload to complete, unwrapping any failure it reported.
+     * @param future
+     * @throws Exception
+     */
+    private static void waitFor(Future<Void> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+}
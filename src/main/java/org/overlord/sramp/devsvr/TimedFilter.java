@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Wraps another filter and records how much time is spent in that filter alone
+ * (i.e. excluding the rest of the chain that it calls into).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class TimedFilter implements Filter {
+
+    private final Filter delegate;
+    private final EndpointMetrics metrics;
+
+    /**
+     * Constructor.
+     * @param context
+     * @param name
+     * @param delegate
+     */
+    public TimedFilter(String context, String name, Filter delegate) {
+        this.delegate = delegate;
+        this.metrics = MetricsRegistry.getInstance().filter(context, name);
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        delegate.init(config);
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        final long[] downstream = new long[1];
+        boolean error = true;
+        long start = metrics.begin();
+        try {
+            delegate.doFilter(request, response, new FilterChain() {
+                @Override
+                public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
+                        ServletException {
+                    long chainStart = System.nanoTime();
+                    try {
+                        chain.doFilter(request, response);
+                    } finally {
+                        downstream[0] += System.nanoTime() - chainStart;
+                    }
+                }
+            });
+            error = false;
+        } finally {
+            // Count the time spent downstream as if it had been spent before the filter started
+            metrics.end(start + downstream[0], 0, error);
+        }
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+        delegate.destroy();
+    }
+
+}
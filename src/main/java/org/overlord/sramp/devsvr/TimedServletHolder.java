@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import javax.servlet.Servlet;
+
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * A servlet holder that times the servlet's startup (i.e. its initialization,
+ * for servlets that are initialized on startup) as a {@link StartupProfiler} phase.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class TimedServletHolder extends ServletHolder {
+
+    private final String phase;
+
+    /**
+     * Constructor.
+     * @param phase
+     * @param servlet
+     */
+    public TimedServletHolder(String phase, Class<? extends Servlet> servlet) {
+        super(servlet);
+        this.phase = phase;
+    }
+
+    /**
+     * @see org.eclipse.jetty.servlet.ServletHolder#doStart()
+     */
+    @Override
+    public void doStart() throws Exception {
+        StartupProfiler.Phase timed = StartupProfiler.getInstance().begin(phase);
+        try {
+            super.doStart();
+        } finally {
+            timed.end();
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Streams an upload through a single (pooled) buffer.  As the data passes through
+ * it is hashed and counted, and the upload is aborted once it exceeds the maximum
+ * allowed size.  The beginning of the stream can be inspected (for type detection)
+ * before any of it is consumed.  Closing the stream returns the buffer to the
+ * {@link BufferPool}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class UploadInputStream extends InputStream {
+
+    private final InputStream source;
+    private final BufferPool pool;
+    private final long maxSize;
+    private final MessageDigest digest;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long count;
+    private boolean eof;
+
+    /**
+     * Constructor.
+     * @param source the stream being uploaded
+     * @param pool the pool the buffer came from
+     * @param buffer the buffer to stream through
+     * @param maxSize the maximum number of bytes allowed (or -1 for no limit)
+     * @param digest used to hash the content (may be null)
+     */
+    public UploadInputStream(InputStream source, BufferPool pool, byte[] buffer, long maxSize, MessageDigest digest) {
+        this.source = source;
+        this.pool = pool;
+        this.buffer = buffer;
+        this.maxSize = maxSize;
+        this.digest = digest;
+    }
+
+    /**
+     * Returns (up to) the first n bytes of the stream without consuming them.  Must
+     * be called before anything is read.
+     * @param n
+     * @throws IOException
+     */
+    public byte[] peek(int n) throws IOException {
+        n = Math.min(n, buffer.length);
+        while (limit < n && !eof) {
+            fill(limit);
+        }
+        return Arrays.copyOfRange(buffer, position, Math.min(limit, n));
+    }
+
+    /**
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !refill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !refill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available() throws IOException {
+        return buffer == null ? 0 : limit - position;
+    }
+
+    /**
+     * Refills the (fully consumed) buffer.
+     * @return false at the end of the stream
+     * @throws IOException
+     */
+    private boolean refill() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Upload stream is closed.");
+        }
+        position = 0;
+        limit = 0;
+        while (limit == 0 && !eof) {
+            fill(0);
+        }
+        return limit > 0;
+    }
+
+    /**
+     * Reads more data from the source into the buffer, starting at the given offset.
+     * @param offset
+     * @throws IOException
+     */
+    private void fill(int offset) throws IOException {
+        int read = source.read(buffer, offset, buffer.length - offset);
+        if (read == -1) {
+            eof = true;
+            return;
+        }
+        count += read;
+        if (maxSize >= 0 && count > maxSize) {
+            throw new UploadTooLargeException(maxSize);
+        }
+        if (digest != null) {
+            digest.update(buffer, offset, read);
+        }
+        limit = offset + read;
+    }
+
+    /**
+     * @return the number of bytes read from the source so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the (hex encoded) hash of the content read so far
+     */
+    public String getHash() {
+        return digest == null ? null : DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+    }
+
+    /**
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+            source.close();
+        }
+    }
+
+    /**
+     * Thrown when an upload exceeds the maximum allowed size.
+     */
+    public static class UploadTooLargeException extends IOException {
+        private static final long serialVersionUID = 4619120447063917351L;
+
+        /**
+         * Constructor.
+         * @param maxSize
+         */
+        public UploadTooLargeException(long maxSize) {
+            super("Upload exceeds the maximum allowed size of " + maxSize + " bytes.");
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.sramp.devsvr;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Applies the upload limits to the s-ramp-server's content-bearing write endpoints
+ * (artifact creation - POST /s-ramp/{model}/{type} - content updates - PUT
+ * /s-ramp/{model}/{type}/{uuid}/media - and batch uploads via
+ * {@code SrampAtomApiClient.uploadBatch} - POST /s-ramp).  Metadata updates and
+ * queries (POSTed to /s-ramp as multipart/form-data) are not throttled.
+ * <p>
+ * RESTEasy parses and stages those requests itself, so this does not reduce how
+ * much the Atom API buffers: the buffer taken from the shared {@link BufferPool}
+ * only serves as a permit while the body is read.  It bounds the number of
+ * uploads being read at once (across the Atom API and the streaming UI upload
+ * servlet, which share the pool) - further uploads wait for a buffer and are
+ * rejected with a 503 if none becomes free in time.  Uploads larger than
+ * s-ramp-dev-server.upload.max-size are rejected with a 413 - up front when the
+ * Content-Length is known, otherwise as soon as the limit is crossed.
+ * <p>
+ * Only installed with -Ds-ramp-dev-server.upload.mode=streaming.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class UploadThrottleFilter implements Filter {
+
+    private long maxSize;
+
+    /**
+     * Constructor.
+     */
+    public UploadThrottleFilter() {
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        maxSize = Long.getLong("s-ramp-dev-server.upload.max-size", -1L);
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        if (!isUpload(httpRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (maxSize >= 0 && httpRequest.getContentLength() > maxSize) {
+            httpResponse.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Upload exceeds the maximum allowed size of " + maxSize + " bytes.");
+            return;
+        }
+
+        BufferPool pool = BufferPool.getInstance();
+        byte[] buffer;
+        try {
+            buffer = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+        if (buffer == null) {
+            httpResponse.setHeader("Retry-After", "5");
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many uploads in progress.");
+            return;
+        }
+
+        final UploadInputStream uploadStream = new UploadInputStream(httpRequest.getInputStream(), pool, buffer,
+                maxSize, null);
+        final ServletInputStream servletStream = new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return uploadStream.read();
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return uploadStream.read(b, off, len);
+            }
+            @Override
+            public int available() throws IOException {
+                return uploadStream.available();
+            }
+        };
+        try {
+            chain.doFilter(new HttpServletRequestWrapper(httpRequest) {
+                @Override
+                public ServletInputStream getInputStream() throws IOException {
+                    return servletStream;
+                }
+            }, response);
+        } catch (UploadInputStream.UploadTooLargeException e) {
+            if (!httpResponse.isCommitted()) {
+                httpResponse.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            }
+        } finally {
+            uploadStream.close();
+        }
+    }
+
+    /**
+     * @param request
+     * @return true if the request uploads artifact content
+     */
+    private static boolean isUpload(HttpServletRequest request) {
+        String method = request.getMethod();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String[] segments = path.split("/");
+        if (segments.length < 2 || !"s-ramp".equals(segments[1]) || (segments.length > 2 && "ontology".equals(segments[2]))) {
+            return false;
+        }
+        if ("POST".equals(method)) {
+            if (segments.length == 2) {
+                // A batch - unless it is a query
+                String contentType = request.getContentType();
+                return contentType == null || !contentType.toLowerCase().startsWith("multipart/form-data");
+            }
+            return segments.length == 4;
+        } else if ("PUT".equals(method)) {
+            return segments.length == 6 && "media".equals(segments[5]);
+        }
+        return false;
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+    }
+
+}